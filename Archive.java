@@ -0,0 +1,472 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntPredicate;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Reads the documents packed in a .zip, .tar, .tar.gz (or .tgz) or .gz
+ * file, one entry at a time, straight from the decompression stream,
+ * so an archive can be indexed without extracting it to disk. Each
+ * entry is named after the archive and its path inside it, as in
+ * "dump.tar.gz!/docs/1174.ufo"; a .gz file holds one entry, named after
+ * the file less its .gz.
+ *
+ * Only regular files are returned: directories, links and the like are
+ * skipped, and archives inside archives are returned as they are. An
+ * Archive is read by one thread; index counts the entries' terms on
+ * several.
+ */
+abstract class Archive implements Closeable {
+    /* Separates an archive's path from an entry's path in document names. */
+    public static final String SEPARATOR = "!/";
+
+    /* The entries read ahead per counting thread, waiting to be counted. */
+    public static final int WINDOW = 4;
+
+    /* The most bytes of entries read ahead, in all. */
+    public static final int WINDOW_BYTES = 32 << 20;
+
+    /* Entries longer than this are counted as they are read, never held whole. */
+    public static final int LARGE_ENTRY = 1 << 20;
+
+    /* The size of the buffers between the file and the decompressor. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /* The archive's path, the prefix of every entry's name */
+    private String _file;
+
+    /* Create an archive reader for the file at path. */
+    private Archive(Path path) {
+        _file = path.toString();
+    }
+
+    /**
+     * Returns true if a file is an archive Archive can read, judging by
+     * its name.
+     *
+     * @param file Path to a file.
+     */
+    public static boolean isArchive(Path file) {
+        String name = file.getFileName() == null ? "" : file.getFileName().toString().toLowerCase();
+        return name.endsWith(".zip") || name.endsWith(".tar") || name.endsWith(".tgz") || name.endsWith(".gz");
+    }
+
+    /**
+     * Returns the path of the file a document came from: the archive,
+     * for a document named after an archive entry, and otherwise the
+     * name itself.
+     *
+     * @param name A document's name.
+     */
+    public static String file(String name) {
+        int separator = name.indexOf(SEPARATOR);
+        return separator < 0 ? name : name.substring(0, separator);
+    }
+
+    /**
+     * Opens an archive for reading.
+     *
+     * @param file Path to a file for which isArchive is true.
+     */
+    public static Archive open(Path file) throws IOException {
+        String name = file.getFileName().toString().toLowerCase();
+        InputStream in = new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE);
+        try {
+            if (name.endsWith(".zip")) return new Zip(file, in);
+            if (name.endsWith(".tar")) return new Tar(file, in);
+            in = new GZIPInputStream(in, BUFFER_SIZE);
+            if (name.endsWith(".tgz") || name.endsWith(".tar.gz")) return new Tar(file, in);
+            return new Gzip(file, in);
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Receives the documents of an archive, in order.
+     */
+    public interface Sink {
+        void add(String name, TermFrequency freq) throws IOException;
+    }
+
+    /**
+     * Counts the terms of the wanted entries of an archive and hands
+     * them to sink, in archive order, without extracting them. This
+     * thread decompresses the entries one after the other. With a
+     * parallelism above one, it hands each entry to a pool of workers,
+     * which count it while the next ones are read, and passes the oldest
+     * to sink as its counts come back. At most WINDOW entries per worker,
+     * and WINDOW_BYTES in all, wait in memory; an entry longer than
+     * LARGE_ENTRY is counted by this thread straight from the stream.
+     *
+     * An archive that cannot be read to the end is reported and skipped
+     * from the first entry that could not be read, so one bad archive
+     * does not stop a build. Entries not wanted are skipped unread.
+     *
+     * @param file Path to a file for which isArchive is true.
+     * @param parallelism The number of threads to count entries with.
+     * @param wanted Given an entry's number, from 0, says whether to count it.
+     * @param sink Receives the wanted entries' names and counts.
+     * @return the number of entries read, wanted or not.
+     */
+    public static int index(Path file, int parallelism, IntPredicate wanted, Sink sink) throws IOException {
+        ExecutorService pool = parallelism > 1 ? Executors.newFixedThreadPool(parallelism) : null;
+        ArrayDeque<Pending> pending = new ArrayDeque<>();
+        long buffered = 0;
+        int entries = 0;
+        try {
+            // an entry skipped unread only counts once the archive reads on past it
+            boolean skipped = false;
+            try (Archive archive = open(file)) {
+                String name;
+                while ((name = archive.next()) != null) {
+                    if (skipped) entries++;
+                    skipped = !wanted.test(entries);
+                    if (skipped) continue;
+
+                    InputStream in = archive.entry();
+                    byte[] head = pool == null ? null : in.readNBytes(LARGE_ENTRY + 1);
+                    if (head != null && head.length <= LARGE_ENTRY) {
+                        while (!pending.isEmpty() && (pending.size() >= parallelism * WINDOW
+                                                      || buffered + head.length > WINDOW_BYTES)) {
+                            buffered -= pending.peek().bytes;
+                            deliver(pending.remove(), sink);
+                        }
+                        pending.add(new Pending(name, head.length,
+                            pool.submit(() -> new TermFrequency(new ByteArrayInputStream(head)))));
+                        buffered += head.length;
+                    } else {
+                        // counted here, while the workers finish the entries before it
+                        if (head != null) in = new SequenceInputStream(new ByteArrayInputStream(head), in);
+                        Pending large = new Pending(name, 0, null);
+                        large.freq = new TermFrequency(in);
+                        while (!pending.isEmpty()) deliver(pending.remove(), sink);
+                        buffered = 0;
+                        deliver(large, sink);
+                    }
+                    entries++;
+                }
+                if (skipped) entries++;
+            } catch (IOException | UncheckedIOException e) {
+                Metrics.count(Metrics.READ_ERRORS, 1);
+                Throwable cause = e instanceof UncheckedIOException ? e.getCause() : e;
+                System.err.println("Could not read " + file + " past entry " + entries + ", so the rest of it was skipped: "
+                                   + cause.getMessage());
+            }
+            // the entries read before any error are whole, so they are kept
+            while (!pending.isEmpty()) deliver(pending.remove(), sink);
+        } catch (SinkFailure e) {
+            throw e.getCause();
+        } finally {
+            if (pool != null) pool.shutdownNow();
+        }
+        return entries;
+    }
+
+    /* Waits for an entry's counts and hands them to sink, wrapping what sink throws in a SinkFailure. */
+    private static void deliver(Pending entry, Sink sink) {
+        TermFrequency freq = entry.freq;
+        if (freq == null) {
+            try {
+                freq = entry.counts.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+                if (e.getCause() instanceof Error) throw (Error) e.getCause();
+                throw new IllegalStateException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while indexing", e);
+            }
+        }
+        try {
+            sink.add(entry.name, freq);
+        } catch (IOException e) {
+            throw new SinkFailure(e);
+        } catch (UncheckedIOException e) {
+            throw new SinkFailure(e.getCause());
+        }
+    }
+
+    /* An entry read and waiting to be handed on, with its counts or a worker counting it. */
+    private static class Pending {
+        String name;
+        int bytes;
+        Future<TermFrequency> counts;
+        TermFrequency freq;
+
+        Pending(String name, int bytes, Future<TermFrequency> counts) {
+            this.name = name;
+            this.bytes = bytes;
+            this.counts = counts;
+        }
+    }
+
+    /* Carries an IOException thrown by a Sink, so it is not taken for the archive's. */
+    private static class SinkFailure extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        SinkFailure(IOException cause) {
+            super(cause);
+        }
+
+        @Override
+        public IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+
+    /**
+     * Moves to the next entry, skipping whatever is left of the current
+     * one, and returns its name, or null once there are no more.
+     */
+    public String next() throws IOException {
+        String path = nextPath();
+        if (path == null) return null;
+        while (path.startsWith("./") || path.startsWith("/")) path = path.substring(path.indexOf('/') + 1);
+        return _file + SEPARATOR + path;
+    }
+
+    /**
+     * Returns the contents of the current entry. Closing the stream
+     * leaves the archive open.
+     */
+    public abstract InputStream entry();
+
+    /* Moves to the next regular file and returns its path in the archive, or null at the end. */
+    protected abstract String nextPath() throws IOException;
+
+    /*
+     * A zip file. Its entries are decompressed one after the other as
+     * the file is read, so its central directory, at the end, is never
+     * consulted.
+     */
+    private static class Zip extends Archive {
+        private ZipInputStream _in;
+
+        Zip(Path file, InputStream in) {
+            super(file);
+            _in = new ZipInputStream(in);
+        }
+
+        @Override
+        protected String nextPath() throws IOException {
+            ZipEntry entry;
+            do {
+                entry = _in.getNextEntry();
+            } while (entry != null && entry.isDirectory());
+            return entry == null ? null : entry.getName();
+        }
+
+        @Override
+        public InputStream entry() {
+            return new FilterInputStream(_in) {
+                @Override
+                public void close() {
+                }
+            };
+        }
+
+        @Override
+        public void close() throws IOException {
+            _in.close();
+        }
+    }
+
+    /*
+     * A tar file, possibly gzipped: a 512-byte header before each entry,
+     * and each entry padded to a multiple of 512 bytes. Long names are
+     * read from GNU long name entries and from pax headers.
+     */
+    private static class Tar extends Archive {
+        private static final int BLOCK = 512;
+
+        private InputStream _in;
+        private byte[] _header;
+        /* the bytes of the current entry not read yet, and the padding after them */
+        private long _remaining;
+        private long _padding;
+
+        Tar(Path file, InputStream in) {
+            super(file);
+            _in = in;
+            _header = new byte[BLOCK];
+        }
+
+        @Override
+        protected String nextPath() throws IOException {
+            String longName = null;
+            while (true) {
+                _in.skipNBytes(_remaining + _padding);
+                _remaining = 0;
+                _padding = 0;
+                int n = _in.readNBytes(_header, 0, BLOCK);
+                // an archive ends with blocks of zeros, which some writers leave off
+                if (n == 0 || isZero(_header)) return null;
+                if (n < BLOCK) throw new EOFException("truncated tar header");
+
+                long size = size();
+                _remaining = size;
+                _padding = (BLOCK - size % BLOCK) % BLOCK;
+                byte type = _header[156];
+                if (type == 'L') {
+                    longName = string(readEntry(size), 0, (int) size);
+                } else if (type == 'x') {
+                    String path = paxPath(readEntry(size));
+                    if (path != null) longName = path;
+                } else if (type == '0' || type == 0 || type == '7') {
+                    if (longName != null) return longName;
+                    String name = string(_header, 0, 100);
+                    // ustar keeps the start of a long path in a prefix field
+                    if (string(_header, 257, 5).equals("ustar")) {
+                        String prefix = string(_header, 345, 155);
+                        if (!prefix.isEmpty()) name = prefix + "/" + name;
+                    }
+                    return name;
+                } else if (type != 'g') {
+                    // directories, links, devices: whatever name they had is used up
+                    longName = null;
+                }
+            }
+        }
+
+        @Override
+        public InputStream entry() {
+            return new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    if (_remaining <= 0) return -1;
+                    int b = _in.read();
+                    if (b < 0) throw new EOFException("truncated tar entry");
+                    _remaining--;
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    if (len == 0) return 0;
+                    if (_remaining <= 0) return -1;
+                    int n = _in.read(b, off, (int) Math.min(len, _remaining));
+                    if (n < 0) throw new EOFException("truncated tar entry");
+                    _remaining -= n;
+                    return n;
+                }
+            };
+        }
+
+        @Override
+        public void close() throws IOException {
+            _in.close();
+        }
+
+        /* Reads the whole of the current entry, which holds metadata. */
+        private byte[] readEntry(long size) throws IOException {
+            if (size > Integer.MAX_VALUE - 8) throw new IOException("tar header entry too large: " + size);
+            byte[] data = _in.readNBytes((int) size);
+            if (data.length < size) throw new EOFException("truncated tar entry");
+            _remaining = 0;
+            return data;
+        }
+
+        /* Returns the header's entry size, in octal or, for large entries, base 256. */
+        private long size() throws IOException {
+            long size = 0;
+            if ((_header[124] & 0x80) != 0) {
+                for (int i = 125; i < 136; i++) size = (size << 8) | (_header[i] & 0xFF);
+                return size;
+            }
+            String octal = string(_header, 124, 12).trim();
+            try {
+                return octal.isEmpty() ? 0 : Long.parseLong(octal, 8);
+            } catch (NumberFormatException e) {
+                throw new IOException("bad tar entry size: " + octal);
+            }
+        }
+
+        /* Returns the path in a pax header's "length key=value\n" records, if there is one. */
+        private static String paxPath(byte[] data) {
+            int offset = 0;
+            while (offset < data.length) {
+                int space = offset;
+                while (space < data.length && data[space] != ' ') space++;
+                int length;
+                try {
+                    length = Integer.parseInt(new String(data, offset, space - offset, StandardCharsets.US_ASCII));
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+                if (length <= 0 || offset + length > data.length) return null;
+                String record = new String(data, space + 1, offset + length - space - 2, StandardCharsets.UTF_8);
+                if (record.startsWith("path=")) return record.substring(5);
+                offset += length;
+            }
+            return null;
+        }
+
+        /* Returns a NUL-terminated header field. */
+        private static String string(byte[] data, int offset, int length) {
+            int end = offset;
+            while (end < offset + length && data[end] != 0) end++;
+            return new String(data, offset, end - offset, StandardCharsets.UTF_8);
+        }
+
+        private static boolean isZero(byte[] block) {
+            for (byte b : block) {
+                if (b != 0) return false;
+            }
+            return true;
+        }
+    }
+
+    /* A gzipped document: one entry, named after the file less its .gz. */
+    private static class Gzip extends Archive {
+        private InputStream _in;
+        private String _name;
+
+        Gzip(Path file, InputStream in) {
+            super(file);
+            _in = in;
+            String name = file.getFileName().toString();
+            _name = name.substring(0, name.length() - 3);
+        }
+
+        @Override
+        protected String nextPath() {
+            String name = _name;
+            _name = null;
+            return name;
+        }
+
+        @Override
+        public InputStream entry() {
+            return new FilterInputStream(_in) {
+                @Override
+                public void close() {
+                }
+            };
+        }
+
+        @Override
+        public void close() throws IOException {
+            _in.close();
+        }
+    }
+
+}
@@ -0,0 +1,241 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+import structure5.*;
+
+/**
+ * Answers many queries against one index at once. Queries are taken a
+ * chunk at a time; within a chunk, each distinct term's idf is computed
+ * and its postings are read and scored only once, however many queries
+ * share it, and identical queries are answered once. The queries of a
+ * chunk are then ranked in parallel from those shared scores, with the
+ * same results Searcher.topK gives (without pruning).
+ */
+class BatchSearcher {
+    /* The number of queries read and answered together. */
+    public static final int CHUNK = 10000;
+
+    /* The index being searched */
+    private Index _index;
+
+    /* Supplies the scorer shared with single queries */
+    private Searcher _searcher;
+
+    /* The number of threads to answer queries with */
+    private int _parallelism;
+
+    /* The documents containing a term, in id order, and their scores for it. */
+    private static class TermScores {
+        int[] docs;
+        double[] scores;
+    }
+
+    /**
+     * Create a batch searcher.
+     *
+     * @param index The index to search.
+     * @param parallelism The number of threads to answer queries with.
+     */
+    public BatchSearcher(Index index, int parallelism) {
+        _searcher = index.searcher();
+        // the version the searcher reads, as a Table may get a newer one while queries run
+        _index = _searcher.index();
+        _parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Returns the top K documents for each query, in the order of the queries.
+     * Each query gets its own Vector, even when it repeats another.
+     *
+     * @param queries Vectors of search terms.
+     * @param k The number of documents to return per query.
+     */
+    public ArrayList<Vector<Association<String, Double>>> topK(ArrayList<Vector<String>> queries, int k) {
+        ArrayList<Vector<Association<String, Double>>> results = new ArrayList<>();
+        for (int from = 0; from < queries.size(); from += CHUNK) {
+            int to = Math.min(from + CHUNK, queries.size());
+            results.addAll(chunk(queries.subList(from, to), k));
+        }
+        return results;
+    }
+
+    /**
+     * Answers one query per line of in, writing one line of JSON (in the
+     * format of SearchServer) per query to out, in the same order.
+     *
+     * @param in The queries, one per line.
+     * @param out Where the results go.
+     * @param k The number of documents to return per query.
+     * @return the number of queries answered.
+     */
+    public int run(BufferedReader in, Writer out, int k) throws IOException {
+        int answered = 0;
+        ArrayList<Vector<String>> queries = new ArrayList<>();
+        String line = in.readLine();
+        while (line != null) {
+            queries.add(Term.toTerms(line));
+            line = in.readLine();
+            if (queries.size() == CHUNK || line == null) {
+                ArrayList<Vector<Association<String, Double>>> results = chunk(queries, k);
+                for (int i = 0; i < results.size(); i++) {
+                    out.write(SearchServer.toJson(queries.get(i), k, results.get(i)));
+                    out.write('\n');
+                }
+                answered += queries.size();
+                queries.clear();
+            }
+        }
+        out.flush();
+        return answered;
+    }
+
+    /* Answers a chunk of queries. */
+    private ArrayList<Vector<Association<String, Double>>> chunk(java.util.List<Vector<String>> queries, int k) {
+        // find the distinct terms and the distinct queries
+        HashMap<String, TermScores> terms = new HashMap<>();
+        HashMap<String, Integer> distinct = new HashMap<>();
+        ArrayList<Vector<String>> unique = new ArrayList<>();
+        int[] which = new int[queries.size()];
+        for (int i = 0; i < queries.size(); i++) {
+            Vector<String> query = _searcher.expand(queries.get(i));
+            StringBuilder key = new StringBuilder();
+            for (String term : query) {
+                terms.put(term, null);
+                key.append(term).append(' ');
+            }
+            Integer seen = distinct.get(key.toString());
+            if (seen == null) {
+                seen = unique.size();
+                distinct.put(key.toString(), seen);
+                unique.add(query);
+            }
+            which[i] = seen;
+        }
+
+        // score each term's postings once, then rank the queries from them
+        String[] termList = terms.keySet().toArray(new String[0]);
+        TermScores[] scored = new TermScores[termList.length];
+        ArrayList<Vector<Association<String, Double>>> answers = new ArrayList<>(Collections.nCopies(unique.size(), null));
+        int count = Math.min(k, _index.documents());
+        ForkJoinPool pool = new ForkJoinPool(_parallelism);
+        try {
+            pool.submit(() -> IntStream.range(0, termList.length).parallel()
+                .forEach(i -> scored[i] = score(termList[i]))).join();
+            for (int i = 0; i < termList.length; i++) terms.put(termList[i], scored[i]);
+            // each task sets its own element, so the list is never resized
+            pool.submit(() -> IntStream.range(0, answers.size()).parallel()
+                .forEach(i -> answers.set(i, rank(unique.get(i), terms, count)))).join();
+        } finally {
+            pool.shutdown();
+        }
+
+        // a repeated query gets its own copy, so callers may change one result without changing another
+        ArrayList<Vector<Association<String, Double>>> results = new ArrayList<>(queries.size());
+        boolean[] given = new boolean[answers.size()];
+        for (int i = 0; i < queries.size(); i++) {
+            Vector<Association<String, Double>> answer = answers.get(which[i]);
+            results.add(given[which[i]] ? copy(answer) : answer);
+            given[which[i]] = true;
+        }
+        return results;
+    }
+
+    /* Returns a copy of results, with copies of its entries. */
+    private static Vector<Association<String, Double>> copy(Vector<Association<String, Double>> results) {
+        Vector<Association<String, Double>> copy = new Vector<>(results.size());
+        for (Association<String, Double> hit : results) copy.add(new Association<>(hit.getKey(), hit.getValue()));
+        return copy;
+    }
+
+    /* Reads and scores a term's postings, or returns null if no document has it. */
+    private TermScores score(String term) {
+        PostingsCursor postings = _index.postings(term);
+        if (postings == null) return null;
+        double idf = _searcher.idf(term);
+        TermScores result = new TermScores();
+        int df = _index.documentFrequency(term);
+        result.docs = new int[df];
+        result.scores = new double[df];
+        int i = 0;
+        for (int doc = postings.doc(); doc != PostingsCursor.NO_MORE_DOCS; doc = postings.next()) {
+            result.docs[i] = doc;
+            result.scores[i] = _searcher.score(postings.count(), idf, doc);
+            i++;
+        }
+        return result;
+    }
+
+    /* Ranks the documents for one query, visiting them in id order like Searcher.topK. */
+    private Vector<Association<String, Double>> rank(Vector<String> query, HashMap<String, TermScores> terms, int k) {
+        ArrayList<TermScores> lists = new ArrayList<>();
+        for (String term : query) {
+            TermScores list = terms.get(term);
+            if (list != null) lists.add(list);
+        }
+        int n = lists.size();
+        int[] at = new int[n];
+        TopKCollector collector = new TopKCollector(k);
+
+        while (true) {
+            int doc = PostingsCursor.NO_MORE_DOCS;
+            for (int i = 0; i < n; i++) {
+                if (at[i] < lists.get(i).docs.length) doc = Math.min(doc, lists.get(i).docs[at[i]]);
+            }
+            if (doc == PostingsCursor.NO_MORE_DOCS) break;
+
+            // add up the terms in query order, as Searcher does
+            double score = 0.0;
+            for (int i = 0; i < n; i++) {
+                TermScores list = lists.get(i);
+                if (at[i] < list.docs.length && list.docs[at[i]] == doc) {
+                    score += list.scores[at[i]];
+                    at[i]++;
+                }
+            }
+            collector.collect(doc, _index.name(doc), score);
+        }
+        return collector.results();
+    }
+
+    /**
+     * Runs a batch of queries from the command line:
+     * $ java BatchSearcher <query file> <document folder path> <k> <output file>
+     * where the query file has one query per line. The results are written
+     * to the output file as one line of JSON per query, and the throughput
+     * is printed at the end.
+     *
+     * @param args The command line argument array.
+     */
+    public static void main(String[] args) {
+        if (args.length != 4 || !Term.isNumber(args[2])) {
+            System.out.println("Improper arguments. The Batch Searcher takes the following parameters:");
+            System.out.println("     java BatchSearcher <query file> <document folder path> <# of documents to return> <output file>");
+            System.exit(1);
+        }
+
+        try {
+            Index index = CachedSearchEngine.load(Paths.get(args[1]));
+            BatchSearcher batch = new BatchSearcher(index, Runtime.getRuntime().availableProcessors());
+            int k = Integer.parseInt(args[2]);
+
+            long start = System.nanoTime();
+            int answered;
+            try (BufferedReader in = Files.newBufferedReader(Paths.get(args[0]), StandardCharsets.UTF_8);
+                 Writer out = Files.newBufferedWriter(Paths.get(args[3]), StandardCharsets.UTF_8)) {
+                answered = batch.run(in, out, k);
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.println("Answered " + answered + " queries in " + String.format("%.3f", seconds) +
+                               " seconds (" + String.format("%.1f", answered / seconds) + " queries/second)");
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+}
@@ -0,0 +1,278 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import structure5.*;
+
+/**
+ * Times the main operations of the search engine on a document folder,
+ * usually one written by CorpusGenerator: tokenizing, counting terms,
+ * building a Table, scoring and ranking queries, and saving and loading
+ * the cached index. Each benchmark is run a number of times to warm up
+ * and then the same number of times to be measured, and the time per
+ * operation is written as JSON, one benchmark per line, so the results
+ * of two commits can be diffed or checked with compare.
+ */
+class Benchmark {
+    /* The number of queries timed by the query benchmarks. */
+    private static final int QUERIES = 1000;
+
+    /* The number of documents timed by the tokenizing benchmarks. */
+    private static final int SAMPLE = 200;
+
+    /* Results are added in here, so the JIT cannot drop the work that made them. */
+    private static volatile long sink;
+
+    /* A piece of work to time, returning something derived from its result. */
+    private interface Body {
+        long run() throws IOException;
+    }
+
+    /* The folder being indexed */
+    private Path _corpus;
+
+    /* The number of warm-up runs, and of timed runs, of each benchmark */
+    private int _iterations;
+
+    /* One JSON object per benchmark run so far */
+    private ArrayList<String> _results;
+
+    /**
+     * Create a benchmark of a document folder.
+     *
+     * @param corpus The document folder.
+     * @param iterations The number of timed runs of each benchmark.
+     */
+    public Benchmark(Path corpus, int iterations) {
+        _corpus = corpus;
+        _iterations = Math.max(1, iterations);
+        _results = new ArrayList<>();
+    }
+
+    /**
+     * Runs every benchmark, printing each result as it finishes.
+     */
+    public void run() throws IOException {
+        Path[] files = Files.walk(_corpus).filter(Files::isRegularFile).toArray(Path[]::new);
+        Path[] sample = Arrays.copyOf(files, Math.min(SAMPLE, files.length));
+        ArrayList<String> words = new ArrayList<>();
+        for (Path file : sample) {
+            String text = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+            words.addAll(Arrays.asList(text.split("\\s+")));
+        }
+
+        // queries are made of words from the corpus, so most of them match something
+        Random random = new Random(136);
+        String[] queries = new String[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            StringBuilder sb = new StringBuilder();
+            for (int n = 1 + random.nextInt(4); n > 0; n--) {
+                sb.append(words.get(random.nextInt(words.size()))).append(' ');
+            }
+            queries[i] = sb.toString();
+        }
+        ArrayList<Vector<String>> terms = new ArrayList<>();
+        for (String query : queries) terms.add(Term.toTerms(query));
+
+        measure("term.normalize", words.size(), () -> {
+            long n = 0;
+            for (String word : words) n += Term.normalize(word).length();
+            return n;
+        });
+        measure("term.toTerms", QUERIES, () -> {
+            long n = 0;
+            for (String query : queries) n += Term.toTerms(query).size();
+            return n;
+        });
+        measure("termFrequency.file", sample.length, () -> {
+            long n = 0;
+            for (Path file : sample) n += new TermFrequency(file).uniqueTerms();
+            return n;
+        });
+
+        measure("table.build.sequential", 1, () -> new Table(files, 1).documents());
+        measure("table.build.parallel", 1,
+                () -> new Table(files, Runtime.getRuntime().availableProcessors()).documents());
+
+        Table table = new Table(files, Runtime.getRuntime().availableProcessors());
+        Searcher searcher = new Searcher(table.snapshot());
+        measure("searcher.idf", QUERIES, () -> {
+            double sum = 0.0;
+            for (Vector<String> query : terms) {
+                for (String term : query) sum += searcher.idf(term);
+            }
+            return (long) sum;
+        });
+        measure("searcher.tfidf", QUERIES, () -> {
+            long n = 0;
+            for (Vector<String> query : terms) {
+                for (String term : query) n += searcher.tfidf(term).size();
+            }
+            return n;
+        });
+        measure("searcher.score", QUERIES, () -> {
+            long n = 0;
+            for (Vector<String> query : terms) n += searcher.score(query).size();
+            return n;
+        });
+        for (int k : new int[] { 1, 10, 100, 1000 }) {
+            measure("searcher.topK.k" + k, QUERIES, () -> {
+                long n = 0;
+                for (Vector<String> query : terms) n += searcher.topK(query, k).size();
+                return n;
+            });
+        }
+        Searcher pruning = new Searcher(table.snapshot(), new TfIdfScorer(), true);
+        measure("searcher.topK.pruned.k10", QUERIES, () -> {
+            long n = 0;
+            for (Vector<String> query : terms) n += pruning.topK(query, 10).size();
+            return n;
+        });
+
+        Path cache = Files.createTempFile("benchmark", "-index.bin");
+        try {
+            measure("cache.save", 1, () -> {
+                MappedIndex.write(table.snapshot(), cache);
+                return Files.size(cache);
+            });
+            measure("cache.load", 1, () -> {
+                // opening only maps the file, so answer a query to read some of it
+                MappedIndex index = MappedIndex.open(cache);
+                return index.searcher().topK(terms.get(0), 10).size();
+            });
+        } finally {
+            Files.deleteIfExists(cache);
+        }
+    }
+
+    /*
+     * Runs body _iterations times to warm up, then _iterations times
+     * timed, and records the time per operation, where one run of body
+     * does the given number of operations.
+     */
+    private void measure(String name, int operations, Body body) throws IOException {
+        for (int i = 0; i < _iterations; i++) {
+            sink += body.run();
+        }
+        double[] times = new double[_iterations];
+        for (int i = 0; i < _iterations; i++) {
+            long start = System.nanoTime();
+            sink += body.run();
+            times[i] = (double) (System.nanoTime() - start) / Math.max(1, operations);
+        }
+
+        Arrays.sort(times);
+        double mean = 0.0;
+        for (double time : times) mean += time;
+        mean /= times.length;
+        double variance = 0.0;
+        for (double time : times) variance += (time - mean) * (time - mean);
+        double stddev = Math.sqrt(variance / times.length);
+        double median = times.length % 2 == 1 ? times[times.length / 2]
+            : (times[times.length / 2 - 1] + times[times.length / 2]) / 2;
+
+        String result = String.format(Locale.ROOT,
+            "{\"name\": \"%s\", \"operations\": %d, \"median_ns\": %.1f, \"mean_ns\": %.1f, "
+            + "\"min_ns\": %.1f, \"max_ns\": %.1f, \"stddev_ns\": %.1f}",
+            name, operations, median, mean, times[0], times[times.length - 1], stddev);
+        System.out.println(result);
+        _results.add(result);
+    }
+
+    /**
+     * Writes the results so far as a JSON document, along with what
+     * they were measured on.
+     *
+     * @param file The file to write.
+     */
+    public void write(Path file) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n");
+        sb.append("  \"java\": \"").append(System.getProperty("java.version")).append("\",\n");
+        sb.append("  \"processors\": ").append(Runtime.getRuntime().availableProcessors()).append(",\n");
+        sb.append("  \"corpus\": \"").append(_corpus.toString().replace("\\", "\\\\").replace("\"", "\\\"")).append("\",\n");
+        sb.append("  \"iterations\": ").append(_iterations).append(",\n");
+        sb.append("  \"benchmarks\": [\n");
+        for (int i = 0; i < _results.size(); i++) {
+            sb.append("    ").append(_results.get(i));
+            sb.append(i + 1 < _results.size() ? ",\n" : "\n");
+        }
+        sb.append("  ]\n");
+        sb.append("}\n");
+        Files.write(file, sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Compares the median times in two result files written by write,
+     * printing the change in each benchmark. Returns the number of
+     * benchmarks that got slower by more than threshold.
+     *
+     * @param before Results from the older code.
+     * @param after Results from the newer code.
+     * @param threshold The allowed slowdown, e.g. 0.1 for 10%.
+     */
+    public static int compare(Path before, Path after, double threshold) throws IOException {
+        HashMap<String, Double> old = medians(before);
+        int regressions = 0;
+        for (Map.Entry<String, Double> entry : medians(after).entrySet()) {
+            Double was = old.get(entry.getKey());
+            if (was == null) continue;
+            double change = entry.getValue() / was - 1.0;
+            boolean regression = change > threshold;
+            if (regression) regressions++;
+            System.out.println(String.format(Locale.ROOT, "%-28s %14.1f ns %14.1f ns %+7.1f%%%s",
+                entry.getKey(), was, entry.getValue(), change * 100, regression ? "  REGRESSION" : ""));
+        }
+        return regressions;
+    }
+
+    /* Reads each benchmark's median time from a result file. */
+    private static HashMap<String, Double> medians(Path file) throws IOException {
+        Pattern line = Pattern.compile("\"name\": \"([^\"]*)\".*\"median_ns\": ([0-9.]+)");
+        HashMap<String, Double> medians = new LinkedHashMap<>();
+        for (String text : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            Matcher matcher = line.matcher(text);
+            if (matcher.find()) medians.put(matcher.group(1), Double.parseDouble(matcher.group(2)));
+        }
+        return medians;
+    }
+
+    /**
+     * Runs the benchmarks, or compares two runs. Call as follows:
+     * $ java Benchmark <document folder path> <output file> [<iterations>]
+     * $ java Benchmark compare <before file> <after file> [<threshold percent>]
+     *
+     * For example,
+     * $ java CorpusGenerator /tmp/corpus 10000
+     * $ java Benchmark /tmp/corpus before.json
+     *   (change some code)
+     * $ java Benchmark /tmp/corpus after.json
+     * $ java Benchmark compare before.json after.json 10
+     *   lists each benchmark's change in median time, exiting with status 1
+     *   if any got more than 10% slower.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length >= 3 && args[0].equals("compare")) {
+            double threshold = args.length > 3 ? Double.parseDouble(args[3]) / 100 : 0.1;
+            int regressions = compare(Paths.get(args[1]), Paths.get(args[2]), threshold);
+            System.exit(regressions > 0 ? 1 : 0);
+        }
+        if (args.length < 2) {
+            System.out.println("Usage: java Benchmark <document folder path> <output file> [<iterations>]");
+            System.out.println("       java Benchmark compare <before file> <after file> [<threshold percent>]");
+            return;
+        }
+        Benchmark benchmark = new Benchmark(Paths.get(args[0]), args.length > 2 ? Integer.parseInt(args[2]) : 5);
+        benchmark.run();
+        benchmark.write(Paths.get(args[1]));
+    }
+
+}
@@ -0,0 +1,87 @@
+/**
+ * A cursor over a postings list stored as PostingsBlocks. Only the
+ * current block is decoded, into arrays the cursor reuses. advance
+ * uses the last document id of each block as a skip pointer: it
+ * binary searches them for the first block that can hold the target,
+ * skipping every block before it without decoding it.
+ */
+abstract class BlockCursor implements PostingsCursor {
+    /* the decoded postings of the current block */
+    private int[] _docs = new int[PostingsBlocks.BLOCK_SIZE];
+    private int[] _counts = new int[PostingsBlocks.BLOCK_SIZE];
+    /* the number of postings in the current block */
+    private int _n = 0;
+    /* the current block, and the current posting within it */
+    private int _block = -1;
+    private int _i = 0;
+
+    /**
+     * Returns the number of blocks in the list.
+     */
+    protected abstract int blocks();
+
+    /**
+     * Returns the last document id in the given block.
+     *
+     * @param block A block number.
+     */
+    protected abstract int lastDoc(int block);
+
+    /**
+     * Decodes the given block into docs and counts, returning the
+     * number of postings in it.
+     *
+     * @param block A block number.
+     * @param docs Receives the document ids.
+     * @param counts Receives the counts.
+     */
+    protected abstract int decode(int block, int[] docs, int[] counts);
+
+    /**
+     * Subclasses call this once they are ready to decode, to position
+     * the cursor on the first posting.
+     */
+    protected void start() {
+        load(0);
+    }
+
+    public int doc() {
+        return _i < _n ? _docs[_i] : NO_MORE_DOCS;
+    }
+
+    public int count() {
+        return _counts[_i];
+    }
+
+    public int next() {
+        if (++_i == _n) load(_block + 1);
+        return doc();
+    }
+
+    public int advance(int target) {
+        if (doc() >= target) return doc();
+
+        if (_docs[_n - 1] < target) {
+            // the target is past this block, so find its block among the skip pointers
+            int lo = _block + 1;
+            int hi = blocks();
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (lastDoc(mid) < target) lo = mid + 1;
+                else hi = mid;
+            }
+            load(lo);
+            if (_n == 0) return NO_MORE_DOCS;
+        }
+        while (_docs[_i] < target) _i++;
+        return doc();
+    }
+
+    /* Decodes the given block and moves to its first posting. */
+    private void load(int block) {
+        _block = block;
+        _i = 0;
+        _n = block < blocks() ? decode(block, _docs, _counts) : 0;
+    }
+
+}
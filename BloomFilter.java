@@ -0,0 +1,105 @@
+/**
+ * A Bloom filter over 64-bit hashes: a set that may answer "maybe" for
+ * a value never added, but never answers "no" for one that was. Each
+ * value sets a few bits of one long[] bit array, picked by double
+ * hashing, so it takes about ten bits per value at a 1% false positive
+ * rate, however long the values it stands for are.
+ */
+class BloomFilter {
+    /* the bit array */
+    private long[] _bits;
+    /* the number of bits, a power of two */
+    private long _mask;
+    /* the number of bits set per value */
+    private int _hashes;
+    /* the number of values added */
+    private long _size;
+
+    /**
+     * Create an empty filter with about a 1% false positive rate until
+     * more than capacity values are added.
+     *
+     * @param capacity The number of values the filter is sized for.
+     */
+    public BloomFilter(long capacity) {
+        // 9.6 bits and 7 hashes per value give 1%; round the bits up to a power of two
+        long bits = Long.highestOneBit(Math.max(64, (long) (capacity * 9.6)) - 1) << 1;
+        _bits = new long[(int) Math.min(bits >>> 6, Integer.MAX_VALUE - 8)];
+        _mask = (long) _bits.length * 64 - 1;
+        _hashes = 7;
+        _size = 0;
+    }
+
+    /**
+     * Adds a value to the filter.
+     *
+     * @param hash A well mixed 64-bit hash of the value.
+     */
+    public void add(long hash) {
+        long h2 = mix(hash) | 1;
+        for (int i = 0; i < _hashes; i++) {
+            long bit = (hash + i * h2) & _mask;
+            _bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+        _size++;
+    }
+
+    /**
+     * Returns false if the value was never added, and true if it
+     * probably was.
+     *
+     * @param hash A well mixed 64-bit hash of the value.
+     */
+    public boolean mightContain(long hash) {
+        long h2 = mix(hash) | 1;
+        for (int i = 0; i < _hashes; i++) {
+            long bit = (hash + i * h2) & _mask;
+            if ((_bits[(int) (bit >>> 6)] & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of values added.
+     */
+    public long size() {
+        return _size;
+    }
+
+    /**
+     * Returns the number of values the filter holds before its false
+     * positive rate rises above about 1%.
+     */
+    public long capacity() {
+        return (long) ((_mask + 1) / 9.6);
+    }
+
+    /**
+     * Hashes a string to 64 well mixed bits: FNV-1a over its chars,
+     * finished with the MurmurHash3 mixer.
+     *
+     * @param s A string.
+     */
+    public static long hash(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    /*
+     * The MurmurHash3 64-bit finalizer. The second hash is this mix of
+     * the first, made odd so that no two of a value's bits coincide.
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+}
@@ -0,0 +1,47 @@
+/**
+ * The Okapi BM25 model. Term frequency saturates as a term repeats,
+ * and longer than average documents are penalized.
+ */
+class Bm25Scorer implements Scorer {
+    private static final long serialVersionUID = 1L;
+
+    /* controls how quickly repeated terms stop adding to the score */
+    private double _k1;
+    /* how much document length matters, from 0 (not at all) to 1 */
+    private double _b;
+
+    /**
+     * Create a BM25 scorer with the usual parameters, k1 = 1.2 and b = 0.75.
+     */
+    public Bm25Scorer() {
+        this(1.2, 0.75);
+    }
+
+    /**
+     * Create a BM25 scorer.
+     *
+     * @param k1 term frequency saturation, usually between 1.2 and 2.
+     * @param b length normalization, between 0 and 1.
+     */
+    public Bm25Scorer(double k1, double b) {
+        _k1 = k1;
+        _b = b;
+    }
+
+    /**
+     * Returns ln(1 + (documents - df + 0.5) / (df + 0.5)), which,
+     * unlike the TF-IDF weight, is never negative.
+     */
+    public double idf(int df, int documents) {
+        return Math.log(1 + (documents - df + 0.5) / (df + 0.5));
+    }
+
+    /**
+     * Returns the BM25 score of the term in the document.
+     */
+    public double score(int count, double idf, int maxCount, int length, double averageLength) {
+        double norm = _k1 * (1 - _b + _b * length / averageLength);
+        return idf * count * (_k1 + 1) / (count + norm);
+    }
+
+}
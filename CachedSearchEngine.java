@@ -1,39 +1,136 @@
 import structure5.*;
 import java.nio.file.*;
 import java.io.*;
+import java.util.ArrayList;
+import java.util.HashSet;
 
 /**
  * This is an implementation of a search engine using TF-IDF and hash tables.
- * It will use a saved file if it has been used previously on the same corpus.
+ * It will use a saved index file if it has been used previously on the same corpus.
+ * The index file is memory-mapped rather than read in, so using it is quick
+ * no matter how large the corpus is. A manifest of file sizes and modification
+ * times is saved with it, so that when the corpus changes only the added,
+ * changed or deleted files have to be reindexed.
  */
 class CachedSearchEngine extends SearchEngine {
     
     /* See SearchEngine for implementation details */
-    public CachedSearchEngine(Vector<String> query, Table t, int k) {
-        super(query, t, k);
+    public CachedSearchEngine(Vector<String> query, Index index, int k) {
+        super(query, index, k);
     }
 
     /**
-     * Conduct the search, the write the file to a text file
-     * of the form "dir-table.txt"
+     * Conduct the search, the write the index to a file
+     * of the form "dir-index.bin", and its manifest to "dir-manifest.bin"
      */
     public CachedSearchEngine(Vector<String> query, Path dir, int k) throws IOException {
+        // the manifest is taken before indexing, in case files change in the meantime
+        this(query, dir, k, Manifest.scan(dir));
+    }
+
+    /* See the constructor above. */
+    private CachedSearchEngine(Vector<String> query, Path dir, int k, Manifest manifest) throws IOException {
         super(query, dir, k);
         System.out.println("Writing file...");
         
-        // then write the file to the filename in the standardized form.
-        String tableName = dir + "-table.txt";
-        FileOutputStream fileWriter = new FileOutputStream(tableName);
-        ObjectOutputStream objectWriter = new ObjectOutputStream(fileWriter);
-        objectWriter.writeObject(table);
-        objectWriter.flush();
-        objectWriter.close();
+        // then write the index to the filename in the standardized form.
+        MappedIndex.write(index, indexFile(dir));
+        manifest.write(manifestFile(dir));
         System.out.println("File written");
     }
 
+    /**
+     * Returns the path of the cached index for a document folder.
+     *
+     * @param dir The document folder path.
+     */
+    public static Path indexFile(Path dir) {
+        return Paths.get(dir + "-index.bin");
+    }
+
+    /**
+     * Returns the path of the manifest of the cached index for a document folder.
+     *
+     * @param dir The document folder path.
+     */
+    public static Path manifestFile(Path dir) {
+        return Paths.get(dir + "-manifest.bin");
+    }
+
+    /**
+     * Brings a cached index up to date with its document folder. Files
+     * whose size or modification time differ from the saved manifest, and
+     * new files, are indexed; documents for changed or deleted files are
+     * dropped. The rest of the index is copied over as it is, and the new
+     * index and manifest replace the cached ones.
+     *
+     * @param dir The document folder path.
+     * @param cached The index last cached for dir.
+     * @return the up to date index, which is cached if nothing changed.
+     */
+    public static MappedIndex refresh(Path dir, MappedIndex cached) throws IOException {
+        Manifest current = Manifest.scan(dir);
+        Manifest saved = Manifest.read(manifestFile(dir));
+
+        // keep the documents whose files (or archives) have not changed
+        boolean[] deleted = new boolean[cached.documents()];
+        HashSet<String> kept = new HashSet<>();
+        int dropped = 0;
+        for (int doc = 0; doc < deleted.length; doc++) {
+            String file = Archive.file(cached.name(doc));
+            if (current.unchanged(file, saved)) {
+                kept.add(file);
+            } else {
+                deleted[doc] = true;
+                dropped++;
+            }
+        }
+
+        // and index every file that was not kept
+        ArrayList<Path> files = new ArrayList<>();
+        for (String name : current.files()) {
+            if (!kept.contains(name)) files.add(Paths.get(name));
+        }
+        if (dropped == 0 && files.isEmpty()) return cached;
+
+        System.out.println("The folder has changed: indexing " + files.size() +
+                           " files and dropping " + dropped + " old documents...");
+        files.sort(null);
+        Table added = new Table(files.toArray(new Path[0]), Runtime.getRuntime().availableProcessors());
+        MappedIndex.write(new UpdatedIndex(cached, deleted, added), indexFile(dir));
+        current.write(manifestFile(dir));
+        System.out.println("Cached index updated.");
+        return MappedIndex.open(indexFile(dir));
+    }
+
+    /**
+     * Returns an index of a document folder for repeated searching: the
+     * cached index, brought up to date, if there is one that can be read,
+     * and otherwise a new Table, which is then cached.
+     *
+     * @param dir The document folder path.
+     */
+    public static Index load(Path dir) throws IOException {
+        if (Files.exists(indexFile(dir))) {
+            try {
+                MappedIndex cached = MappedIndex.open(indexFile(dir));
+                System.out.println("Found cached index.");
+                return refresh(dir, cached);
+            } catch (IOException e) {
+                System.out.println("File existed but could not be opened as an index: " + e.getMessage());
+            }
+        }
+        System.out.println("Indexing " + dir + "...");
+        Manifest manifest = Manifest.scan(dir);
+        Table table = new Table(dir);
+        MappedIndex.write(table.snapshot(), indexFile(dir));
+        manifest.write(manifestFile(dir));
+        return table;
+    }
+
     /**
      * Parse the text as in SearchEngine, and conduct the search
-     * If the cached table is found, read it in, else conduct search normally
+     * If the cached index is found, map it in, else conduct search normally
      * 
      * @param args of same format as SearchEngine
      */
@@ -49,29 +146,29 @@ class CachedSearchEngine extends SearchEngine {
         Path dir = Paths.get(args[1]);
         int k = Integer.parseInt(args[2]);
 
-        // if a table exists, bypass the search engine
-        if (new File(dir + "-table.txt").exists()) {
-            // try to read from file
+        // if an index file exists, bypass the search engine
+        if (Files.exists(indexFile(dir))) {
+            // try to open the file
+            MappedIndex fromFile = null;
             try { 
-                FileInputStream fileReader = new FileInputStream(dir + "-table.txt");
-                ObjectInputStream objectReader = new ObjectInputStream(fileReader);
-                System.out.println("Found cached Table \nThis will take about 15 seconds");
-                Table fromFile = (Table) objectReader.readObject();
-                objectReader.close();
-                System.out.println("Successfully read in Table from txt file.\n");
-
+                fromFile = MappedIndex.open(indexFile(dir));
+                System.out.println("Found cached index.");
+                fromFile = refresh(dir, fromFile);
+                System.out.println();
+            // if opening the file fails, move on to normal search.
+            } catch (IOException e) {
+                System.out.println("File existed but could not be opened as an index: " + e.getMessage());
+                System.out.println("It was either written by an older version, or the file was edited");
+                System.out.println("The program will now run a normal search engine and cache the index.\n");
+            }
+            if (fromFile != null) {
                 SearchEngine s = new CachedSearchEngine(query, fromFile, k);
-                System.exit(1);  
-            // if reading file fails, move on to normal search.
-            } catch (Exception e) {
-                System.out.println("File existed but could not be determined to be a Table");
-                System.out.println("You are either running the program for the first time, or the txt file was edited");
-                System.out.println("The program will now run a normal search engine and cache the Table.\n");
+                return;
             }
         }
 
-        // if no table exists, handle the search normally
-        // creating the table afterwards in the the constructor
+        // if no index exists, handle the search normally
+        // creating the index file afterwards in the the constructor
         try {
             SearchEngine s = new CachedSearchEngine(query, dir, k);  
         } catch (Exception e) {
@@ -80,4 +177,3 @@ class CachedSearchEngine extends SearchEngine {
     }
 
 }
-
@@ -0,0 +1,177 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Random;
+
+/**
+ * Generates synthetic document collections for benchmarking. Words are
+ * drawn from a fixed vocabulary with Zipf-distributed frequencies, as in
+ * natural text, so a few terms appear in nearly every document and most
+ * appear in only a handful. Given the same seed and sizes, the same
+ * corpus (and the same queries) come out byte for byte, so benchmark
+ * runs on different commits see identical data.
+ *
+ * Documents are written as plain text files, a thousand to a folder,
+ * with sentence capitalization and punctuation for the tokenizer to strip.
+ */
+class CorpusGenerator {
+    /* The number of documents written to each folder. */
+    private static final int PER_FOLDER = 1000;
+
+    /* The Zipf exponent; close to 1, as for English words. */
+    private static final double EXPONENT = 1.07;
+
+    /* The vocabulary, most frequent word first */
+    private String[] _words;
+
+    /* _cumulative[i] is the probability of drawing one of words 0 through i */
+    private double[] _cumulative;
+
+    /* The seed every document and query is derived from */
+    private long _seed;
+
+    /**
+     * Create a generator.
+     *
+     * @param vocabulary The number of distinct words.
+     * @param seed The seed for the vocabulary, documents and queries.
+     */
+    public CorpusGenerator(int vocabulary, long seed) {
+        _seed = seed;
+        _words = new String[vocabulary];
+        Random random = new Random(seed);
+        for (int i = 0; i < vocabulary; i++) {
+            _words[i] = word(i, random);
+        }
+
+        _cumulative = new double[vocabulary];
+        double sum = 0.0;
+        for (int i = 0; i < vocabulary; i++) {
+            sum += 1.0 / Math.pow(i + 1, EXPONENT);
+            _cumulative[i] = sum;
+        }
+        for (int i = 0; i < vocabulary; i++) {
+            _cumulative[i] /= sum;
+        }
+    }
+
+    /*
+     * Makes word number i: its index written in base 26, so every word is
+     * distinct, after one to three random letters, so words vary in length.
+     */
+    private static String word(int i, Random random) {
+        StringBuilder sb = new StringBuilder();
+        for (int n = 1 + random.nextInt(3); n > 0; n--) {
+            sb.append((char) ('a' + random.nextInt(26)));
+        }
+        do {
+            sb.append((char) ('a' + i % 26));
+            i /= 26;
+        } while (i > 0);
+        return sb.toString();
+    }
+
+    /**
+     * Returns a word drawn from the Zipf distribution.
+     *
+     * @param random The source of randomness.
+     */
+    public String draw(Random random) {
+        double p = random.nextDouble();
+        int lo = 0;
+        int hi = _cumulative.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (_cumulative[mid] < p) lo = mid + 1;
+            else hi = mid;
+        }
+        return _words[lo];
+    }
+
+    /**
+     * Returns the text of document number doc. Its length is roughly
+     * log-normal around averageLength words.
+     *
+     * @param doc The document's number.
+     * @param averageLength The typical number of words in a document.
+     */
+    public String document(int doc, int averageLength) {
+        Random random = new Random(_seed * 31 + doc);
+        int length = Math.max(1, (int) (averageLength * Math.exp(0.5 * random.nextGaussian() - 0.125)));
+        StringBuilder sb = new StringBuilder(length * 8);
+        boolean capital = true;
+        for (int i = 0; i < length; i++) {
+            String word = draw(random);
+            if (capital) {
+                sb.append(Character.toUpperCase(word.charAt(0))).append(word, 1, word.length());
+                capital = false;
+            } else {
+                sb.append(word);
+            }
+            if (random.nextInt(12) == 0) {
+                sb.append(random.nextInt(4) == 0 ? ",\n" : ". ");
+                capital = true;
+            } else {
+                sb.append(' ');
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns query number i: one to four words drawn from the same
+     * distribution as the documents.
+     *
+     * @param i The query's number.
+     */
+    public String query(int i) {
+        Random random = new Random(_seed * 17 - i);
+        StringBuilder sb = new StringBuilder();
+        for (int n = 1 + random.nextInt(4); n > 0; n--) {
+            if (sb.length() > 0) sb.append(' ');
+            sb.append(draw(random));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes documents files into dir, in numbered folders of a thousand.
+     *
+     * @param dir The folder to write the corpus into.
+     * @param documents The number of documents.
+     * @param averageLength The typical number of words in a document.
+     */
+    public void write(Path dir, int documents, int averageLength) throws IOException {
+        for (int doc = 0; doc < documents; doc++) {
+            Path folder = dir.resolve(String.format("%05d", doc / PER_FOLDER));
+            if (doc % PER_FOLDER == 0) Files.createDirectories(folder);
+            Path file = folder.resolve(String.format("%08d.txt", doc));
+            Files.write(file, document(doc, averageLength).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Writes a corpus for benchmarking. Call as follows:
+     * $ java CorpusGenerator <folder> <documents> [<vocabulary> [<average length> [<seed>]]]
+     *
+     * For example,
+     * $ java CorpusGenerator /tmp/corpus-100k 100000
+     *   writes 100,000 documents of about 300 words each, drawn from
+     *   100,000 distinct words, with the default seed.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: java CorpusGenerator <folder> <documents> [<vocabulary> [<average length> [<seed>]]]");
+            return;
+        }
+        Path dir = Paths.get(args[0]);
+        int documents = Integer.parseInt(args[1]);
+        int vocabulary = args.length > 2 ? Integer.parseInt(args[2]) : 100000;
+        int averageLength = args.length > 3 ? Integer.parseInt(args[3]) : 300;
+        long seed = args.length > 4 ? Long.parseLong(args[4]) : 136;
+
+        new CorpusGenerator(vocabulary, seed).write(dir, documents, averageLength);
+        System.out.println("Wrote " + documents + " documents to " + dir);
+    }
+
+}
@@ -0,0 +1,531 @@
+import java.io.*;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+
+/**
+ * The state of a web crawl, kept in a folder so that a crawl of millions
+ * of pages runs in bounded memory and can pick up where it stopped.
+ *
+ * URLs waiting to be fetched form a first in, first out queue. Only its
+ * two ends are held in memory; the middle is spilled to files of SEGMENT
+ * URLs each, read back in turn. A URL is queued only the first time it
+ * is seen, after canonicalize has given it one spelling. Seen URLs are
+ * remembered as 64-bit fingerprints: recent ones in memory, the rest in
+ * sorted files, or runs, that are memory mapped and binary searched. Each
+ * batch from memory becomes a new run, merged with the newest runs that
+ * are not much larger, so runs grow geometrically: there are only
+ * logarithmically many, and each fingerprint is rewritten only a
+ * logarithmic number of times. A Bloom filter in front answers most
+ * lookups for new URLs without touching the files. Every page collected
+ * is appended to a journal, with its terms, unless the crawl is temporary
+ * and so cannot be resumed.
+ *
+ * checkpoint saves, atomically, which queue files, which fingerprint files
+ * and how much of the journal make up the crawl so far, along with the
+ * URLs held in memory, including those handed out by poll and not yet
+ * done. Opening the folder again resumes from the last checkpoint: the
+ * journal replays the pages already collected, and URLs that were being
+ * fetched are fetched again. Files written after the checkpoint are
+ * discarded, so a crawl killed at any moment loses at most the pages
+ * since its last checkpoint.
+ */
+class CrawlFrontier implements Closeable {
+    /* The pages collected between checkpoints. */
+    public static final int CHECKPOINT_PAGES = 1000;
+
+    /* The number of URLs per queue file, and the most held at either end of the queue. */
+    public static final int SEGMENT = 10000;
+
+    /* The most fingerprints held in memory before they are merged into the file. */
+    public static final int SEEN_BUFFER = 1 << 16;
+
+    /* The number of URLs the Bloom filter is first sized for. */
+    public static final long EXPECTED_URLS = 1 << 20;
+
+    /* URLs longer than this are skipped, as most servers refuse them. */
+    public static final int MAX_URL_LENGTH = 2048;
+
+    /* "MOCF", to recognize checkpoint files */
+    private static final int MAGIC = 0x4D4F4346;
+
+    private static final String CHECKPOINT = "checkpoint";
+    private static final String JOURNAL = "pages.log";
+
+    /* The folder holding the crawl, and whether to delete it on close */
+    private Path _dir;
+    private boolean _temporary;
+    private boolean _resumed;
+
+    /* URLs handed out by poll and not yet done, oldest first */
+    private LinkedHashSet<String> _claimed;
+    /* The front of the queue, the files spilled behind it, and its back */
+    private ArrayDeque<String> _head;
+    private ArrayDeque<Path> _segments;
+    private ArrayList<String> _tail;
+    private long _queued;
+
+    /* Seen URLs' fingerprints: a filter, those not yet merged, and the sorted runs, oldest first */
+    private BloomFilter _bloom;
+    private HashSet<Long> _recent;
+    private ArrayList<Path> _seenFiles;
+    private ArrayList<LongBuffer> _seen;
+
+    /* The journal of collected pages, opened for appending on first use */
+    private DataOutputStream _journal;
+    private long _journalLength;
+    private int _pages;
+    private int _pagesSinceCheckpoint;
+
+    /* The number used to name the next queue or fingerprint file */
+    private int _nextFile;
+    /* Files the last checkpoint refers to, which must outlive the next one */
+    private HashSet<Path> _checkpointed;
+    /* Files no longer needed once the next checkpoint is written */
+    private ArrayList<Path> _obsolete;
+
+    /* Create an empty frontier in dir. */
+    private CrawlFrontier(Path dir, boolean temporary) {
+        _dir = dir;
+        _temporary = temporary;
+        _resumed = false;
+        _claimed = new LinkedHashSet<>();
+        _head = new ArrayDeque<>();
+        _segments = new ArrayDeque<>();
+        _tail = new ArrayList<>();
+        _queued = 0;
+        _bloom = new BloomFilter(EXPECTED_URLS);
+        _recent = new HashSet<>();
+        _seenFiles = new ArrayList<>();
+        _seen = new ArrayList<>();
+        _journalLength = 0;
+        _pages = 0;
+        _pagesSinceCheckpoint = 0;
+        _nextFile = 0;
+        _checkpointed = new HashSet<>();
+        _obsolete = new ArrayList<>();
+    }
+
+    /**
+     * Opens the crawl kept in dir, resuming from its last checkpoint,
+     * or starts an empty one if dir has none. The folder is created if
+     * it does not exist. Only one frontier may use a folder at a time.
+     *
+     * @param dir The folder holding the crawl.
+     */
+    public static CrawlFrontier open(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        CrawlFrontier frontier = new CrawlFrontier(dir, false);
+        frontier.resume();
+        return frontier;
+    }
+
+    /**
+     * Starts an empty crawl in a temporary folder, which is deleted on
+     * close. It is never checkpointed, but still spills to disk.
+     */
+    public static CrawlFrontier temporary() throws IOException {
+        return new CrawlFrontier(Files.createTempDirectory("crawl"), true);
+    }
+
+    /* Reads the last checkpoint, if any, and deletes what was written after it. */
+    private void resume() throws IOException {
+        Path checkpoint = _dir.resolve(CHECKPOINT);
+        if (Files.exists(checkpoint)) {
+            try (DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(Files.newInputStream(checkpoint)))) {
+                if (in.readInt() != MAGIC) throw new IOException(checkpoint + " is not a crawl checkpoint");
+                _pages = in.readInt();
+                _journalLength = in.readLong();
+                _nextFile = in.readInt();
+                for (int i = in.readInt(); i > 0; i--) _seenFiles.add(_dir.resolve(in.readUTF()));
+                for (int i = in.readInt(); i > 0; i--) _head.add(in.readUTF());
+                for (int i = in.readInt(); i > 0; i--) _segments.add(_dir.resolve(in.readUTF()));
+                for (int i = in.readInt(); i > 0; i--) _tail.add(in.readUTF());
+                _queued = in.readLong();
+            }
+            _resumed = true;
+        }
+
+        // anything not in the checkpoint was written after it
+        _checkpointed.addAll(_seenFiles);
+        _checkpointed.addAll(_segments);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(_dir, "{queue,seen}-*")) {
+            for (Path file : files) {
+                if (!_checkpointed.contains(file)) Files.delete(file);
+            }
+        }
+        Path journal = _dir.resolve(JOURNAL);
+        if (Files.exists(journal)) {
+            try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.WRITE)) {
+                channel.truncate(_journalLength);
+            }
+        }
+
+        long seen = 0;
+        for (Path file : _seenFiles) {
+            LongBuffer run = map(file);
+            _seen.add(run);
+            seen += run.limit();
+        }
+        if (seen > 0) {
+            _bloom = new BloomFilter(Math.max(EXPECTED_URLS, 2 * seen));
+            for (LongBuffer run : _seen) {
+                for (int i = 0; i < run.limit(); i++) _bloom.add(run.get(i));
+            }
+        }
+    }
+
+    /**
+     * Returns true if the frontier was resumed from a checkpoint.
+     */
+    public boolean resumed() {
+        return _resumed;
+    }
+
+    /**
+     * Returns the number of pages collected so far, including those
+     * collected before the crawl was resumed.
+     */
+    public int pages() {
+        return _pages;
+    }
+
+    /**
+     * Returns the number of URLs waiting to be fetched, including those
+     * handed out by poll and not yet done.
+     */
+    public long size() {
+        return _claimed.size() + _queued;
+    }
+
+    /**
+     * Gives a URL one spelling, so that links to the same page look
+     * alike: the scheme and host are lower-cased, a default port and
+     * the fragment are dropped, "." and ".." segments are resolved, an
+     * empty path becomes "/" and percent escapes are upper-cased.
+     * Returns null for anything but an http or https URL, or one longer
+     * than MAX_URL_LENGTH.
+     *
+     * @param url An absolute URL.
+     */
+    public static String canonicalize(String url) {
+        URI uri;
+        try {
+            // browsers send a space in a link as %20
+            uri = new URI(url.trim().replace(" ", "%20")).normalize();
+        } catch (URISyntaxException e) {
+            return null;
+        }
+        String scheme = uri.getScheme();
+        String host = uri.getHost();
+        if (scheme == null || host == null) return null;
+        scheme = scheme.toLowerCase();
+        if (!scheme.equals("http") && !scheme.equals("https")) return null;
+
+        StringBuilder sb = new StringBuilder(scheme).append("://");
+        if (uri.getRawUserInfo() != null) sb.append(uri.getRawUserInfo()).append('@');
+        host = host.toLowerCase();
+        if (host.endsWith(".")) host = host.substring(0, host.length() - 1);
+        sb.append(host);
+        int port = uri.getPort();
+        if (port != -1 && !(port == 80 && scheme.equals("http")) && !(port == 443 && scheme.equals("https"))) {
+            sb.append(':').append(port);
+        }
+        String path = uri.getRawPath();
+        // normalize leaves a ".." that climbs above the root
+        while (path.startsWith("/../")) path = path.substring(3);
+        sb.append(path.isEmpty() ? "/" : path);
+        if (uri.getRawQuery() != null) sb.append('?').append(uri.getRawQuery());
+
+        // %2f and %2F are the same escape
+        for (int i = sb.indexOf("%"); i >= 0 && i + 2 < sb.length(); i = sb.indexOf("%", i + 1)) {
+            sb.setCharAt(i + 1, Character.toUpperCase(sb.charAt(i + 1)));
+            sb.setCharAt(i + 2, Character.toUpperCase(sb.charAt(i + 2)));
+        }
+        if (sb.length() > MAX_URL_LENGTH) return null;
+        return sb.toString();
+    }
+
+    /**
+     * Queues a URL to be fetched, unless it has been seen before.
+     * Returns true if it was queued.
+     *
+     * @param url An absolute URL.
+     */
+    public boolean add(String url) throws IOException {
+        url = canonicalize(url);
+        if (url == null) return false;
+        long fingerprint = BloomFilter.hash(url);
+        if (_bloom.mightContain(fingerprint) && seen(fingerprint)) return false;
+
+        _bloom.add(fingerprint);
+        _recent.add(fingerprint);
+        if (_recent.size() >= SEEN_BUFFER) merge();
+        _queued++;
+        if (_segments.isEmpty() && _tail.isEmpty() && _head.size() < SEGMENT) {
+            _head.add(url);
+        } else {
+            _tail.add(url);
+            if (_tail.size() >= SEGMENT) spill();
+        }
+        if (_bloom.size() > _bloom.capacity()) rebuildBloom();
+        return true;
+    }
+
+    /* Returns true if fingerprint is in memory or in one of the sorted runs. */
+    private boolean seen(long fingerprint) {
+        if (_recent.contains(fingerprint)) return true;
+        for (LongBuffer run : _seen) {
+            int lo = 0;
+            int hi = run.limit() - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                long value = run.get(mid);
+                if (value < fingerprint) lo = mid + 1;
+                else if (value > fingerprint) hi = mid - 1;
+                else return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * Writes the fingerprints in memory to a new sorted run, merged with
+     * the newest runs no more than twice the size of what is merged so far.
+     * No fingerprint is in two runs, so the merge never meets duplicates.
+     */
+    private void merge() throws IOException {
+        long[] recent = new long[_recent.size()];
+        int n = 0;
+        for (long fingerprint : _recent) recent[n++] = fingerprint;
+        Arrays.sort(recent);
+
+        int from = _seen.size();
+        long merged = recent.length;
+        while (from > 0 && _seen.get(from - 1).limit() <= 2 * merged) {
+            from--;
+            merged += _seen.get(from).limit();
+        }
+        LongBuffer[] runs = new LongBuffer[_seen.size() - from + 1];
+        for (int r = from; r < _seen.size(); r++) runs[r - from] = _seen.get(r).duplicate();
+        runs[runs.length - 1] = LongBuffer.wrap(recent);
+
+        Path file = nextFile("seen-", ".bin");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(file)))) {
+            // there are only a few runs, so a linear scan for the least is fine
+            for (long i = 0; i < merged; i++) {
+                LongBuffer least = null;
+                for (LongBuffer run : runs) {
+                    if (run.hasRemaining() && (least == null || run.get(run.position()) < least.get(least.position()))) {
+                        least = run;
+                    }
+                }
+                out.writeLong(least.get());
+            }
+        }
+        while (_seen.size() > from) {
+            _seen.remove(_seen.size() - 1);
+            discard(_seenFiles.remove(_seenFiles.size() - 1));
+        }
+        _seenFiles.add(file);
+        _seen.add(map(file));
+        _recent.clear();
+    }
+
+    /* Memory maps a file of sorted fingerprints. */
+    private static LongBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).asLongBuffer();
+        }
+    }
+
+    /* Makes a Bloom filter twice as large from every fingerprint seen. */
+    private void rebuildBloom() {
+        _bloom = new BloomFilter(2 * _bloom.capacity());
+        for (LongBuffer run : _seen) {
+            for (int i = 0; i < run.limit(); i++) _bloom.add(run.get(i));
+        }
+        for (long fingerprint : _recent) _bloom.add(fingerprint);
+    }
+
+    /* Writes the back of the queue to a file behind the others. */
+    private void spill() throws IOException {
+        Path file = nextFile("queue-", ".txt");
+        Files.write(file, _tail, StandardCharsets.UTF_8);
+        _segments.add(file);
+        _tail.clear();
+    }
+
+    /* Returns the path of a new queue or fingerprint file. */
+    private Path nextFile(String prefix, String suffix) {
+        return _dir.resolve(String.format("%s%06d%s", prefix, _nextFile++, suffix));
+    }
+
+    /* Deletes a file now, or after the next checkpoint if the last one refers to it. */
+    private void discard(Path file) throws IOException {
+        if (_checkpointed.contains(file)) _obsolete.add(file);
+        else Files.deleteIfExists(file);
+    }
+
+    /**
+     * Takes the oldest URL off the queue, or returns null if it is empty.
+     * The URL counts as claimed, and is saved by checkpoint, until done
+     * is called for it.
+     */
+    public String poll() throws IOException {
+        if (_head.isEmpty()) {
+            if (!_segments.isEmpty()) {
+                Path file = _segments.poll();
+                _head.addAll(Files.readAllLines(file, StandardCharsets.UTF_8));
+                discard(file);
+            } else {
+                _head.addAll(_tail);
+                _tail.clear();
+            }
+        }
+        String url = _head.poll();
+        if (url != null) {
+            _queued--;
+            _claimed.add(url);
+        }
+        return url;
+    }
+
+    /**
+     * Marks a URL from poll as finished, whether or not its page was
+     * collected, so it is not fetched again on resuming.
+     *
+     * @param url A URL returned by poll.
+     */
+    public void done(String url) {
+        _claimed.remove(url);
+    }
+
+    /**
+     * Records a collected page in the journal. A temporary frontier only
+     * counts it, as it is never resumed.
+     *
+     * @param url The page's URL.
+     * @param freq The page's TermFrequency.
+     */
+    public void collected(String url, TermFrequency freq) throws IOException {
+        _pages++;
+        _pagesSinceCheckpoint++;
+        if (_temporary) return;
+        if (_journal == null) {
+            _journal = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(_dir.resolve(JOURNAL), StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(freq);
+        }
+        _journal.writeUTF(url);
+        _journal.writeInt(bytes.size());
+        bytes.writeTo(_journal);
+    }
+
+    /**
+     * Hands every page collected up to the last checkpoint to sink, in
+     * the order they were collected. Call it once, before anything new
+     * is collected.
+     *
+     * @param sink Receives each page's URL and TermFrequency.
+     */
+    public void replay(BiConsumer<String, TermFrequency> sink) throws IOException {
+        if (_journalLength == 0) return;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(_dir.resolve(JOURNAL))))) {
+            for (int page = 0; page < _pages; page++) {
+                String url = in.readUTF();
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                try (ObjectInputStream record = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                    sink.accept(url, (TermFrequency) record.readObject());
+                } catch (ClassNotFoundException e) {
+                    throw new IOException("corrupt crawl journal", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns true once CHECKPOINT_PAGES pages have been collected since
+     * the last checkpoint. A temporary frontier is never due.
+     */
+    public boolean checkpointDue() {
+        return !_temporary && _pagesSinceCheckpoint >= CHECKPOINT_PAGES;
+    }
+
+    /**
+     * Saves the crawl so far, so that opening the folder again resumes
+     * from here. Does nothing for a temporary frontier.
+     */
+    public void checkpoint() throws IOException {
+        if (_temporary) return;
+        if (_journal != null) _journal.flush();
+        _journalLength = Files.exists(_dir.resolve(JOURNAL)) ? Files.size(_dir.resolve(JOURNAL)) : 0;
+        // fingerprints in memory go into a run, which the checkpoint can refer to
+        if (!_recent.isEmpty()) merge();
+
+        Path checkpoint = _dir.resolve(CHECKPOINT);
+        Path temp = _dir.resolve(CHECKPOINT + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(_pages);
+            out.writeLong(_journalLength);
+            out.writeInt(_nextFile);
+            out.writeInt(_seenFiles.size());
+            for (Path file : _seenFiles) out.writeUTF(file.getFileName().toString());
+            // claimed URLs go first, to be fetched again
+            out.writeInt(_claimed.size() + _head.size());
+            for (String url : _claimed) out.writeUTF(url);
+            for (String url : _head) out.writeUTF(url);
+            out.writeInt(_segments.size());
+            for (Path file : _segments) out.writeUTF(file.getFileName().toString());
+            out.writeInt(_tail.size());
+            for (String url : _tail) out.writeUTF(url);
+            out.writeLong(size());
+        }
+        Files.move(temp, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        for (Path file : _obsolete) Files.deleteIfExists(file);
+        _obsolete.clear();
+        _checkpointed.clear();
+        _checkpointed.addAll(_seenFiles);
+        _checkpointed.addAll(_segments);
+        _pagesSinceCheckpoint = 0;
+    }
+
+    /**
+     * Closes the journal. A temporary frontier's folder is deleted; a
+     * lasting one keeps its last checkpoint, so call checkpoint first to
+     * save the latest pages.
+     */
+    public void close() throws IOException {
+        if (_journal != null) _journal.close();
+        _journal = null;
+        if (_temporary) {
+            try (Stream<Path> files = Files.walk(_dir)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toArray(Path[]::new)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+}
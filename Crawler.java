@@ -0,0 +1,253 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.BiConsumer;
+import org.jsoup.*;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+
+/**
+ * A web crawler that fetches pages concurrently, each on its own
+ * virtual thread. At most a fixed number of fetches run at once, and
+ * at most a (smaller) fixed number against any one host, so no server
+ * is hammered. Every page is downloaded and parsed once, for both its
+ * text and its links. A page that cannot be fetched is reported and
+ * skipped; it never stops the crawl. A page whose text is a
+ * near-duplicate of one already collected, such as a mirror's copy, is
+ * left out too, and its links are not followed.
+ *
+ * Pages are visited roughly breadth first: links wait in a CrawlFrontier,
+ * first in, first out, which can spill to disk and be checkpointed so a
+ * crawl can resume. A window of URLs taken from it waits in a queue per
+ * host, so that a busy host does not hold up the others.
+ */
+class Crawler {
+    /* The default limits on concurrent fetches, overall and per host. */
+    public static final int CONCURRENCY = 64;
+    public static final int PER_HOST = 4;
+
+    /* The URLs taken from the frontier ahead of fetching, per concurrent fetch. */
+    public static final int WINDOW = 4;
+
+    private int _concurrency;
+    private int _perHost;
+    private boolean _skipDuplicates;
+
+    /**
+     * Create a crawler with the default limits.
+     */
+    public Crawler() {
+        this(CONCURRENCY, PER_HOST);
+    }
+
+    /**
+     * Create a crawler that skips near-duplicate pages.
+     *
+     * @param concurrency The most pages to fetch at once.
+     * @param perHost The most pages to fetch at once from a single host.
+     */
+    public Crawler(int concurrency, int perHost) {
+        this(concurrency, perHost, true);
+    }
+
+    /**
+     * Create a crawler.
+     *
+     * @param concurrency The most pages to fetch at once.
+     * @param perHost The most pages to fetch at once from a single host.
+     * @param skipDuplicates true to leave out pages that are near-duplicates of earlier ones.
+     */
+    public Crawler(int concurrency, int perHost, boolean skipDuplicates) {
+        _concurrency = Math.max(1, concurrency);
+        _perHost = Math.max(1, perHost);
+        _skipDuplicates = skipDuplicates;
+    }
+
+    /* The outcome of fetching one page. */
+    private static class Page {
+        String url;
+        String host;
+        TermFrequency freq;
+        ArrayList<String> links;
+        Exception error;
+    }
+
+    /**
+     * Crawls the web from a seed URL, handing each page to sink as it
+     * is collected. The seed and up to depth further pages are collected.
+     * The sink is only called from the thread that called crawl.
+     *
+     * @param startingURL seed URL to start at.
+     * @param depth int of how many unique webpages to look at.
+     * @param sink Receives each page's URL and TermFrequency.
+     *
+     * @return number of webpages collected, not counting the seed
+     */
+    public int crawl(URL startingURL, int depth, BiConsumer<String, TermFrequency> sink) {
+        try (CrawlFrontier frontier = CrawlFrontier.temporary()) {
+            return crawl(startingURL, depth, sink, frontier);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Crawls the web from a seed URL, keeping the crawl's state in
+     * frontier, which is checkpointed as pages are collected and once
+     * more at the end. If frontier was resumed, the pages it already
+     * collected are handed to sink first and count towards depth; the
+     * seed is then already seen, and the crawl goes on from where it
+     * stopped.
+     *
+     * @param startingURL seed URL to start at.
+     * @param depth int of how many unique webpages to look at.
+     * @param sink Receives each page's URL and TermFrequency.
+     * @param frontier The URLs to fetch and those already seen.
+     *
+     * @return number of webpages collected, not counting the seed
+     */
+    public int crawl(URL startingURL, int depth, BiConsumer<String, TermFrequency> sink,
+                     CrawlFrontier frontier) throws IOException {
+        int budget = depth + 1;
+        // the pages already collected are the originals later pages are compared with
+        NearDuplicates collectedPages = new NearDuplicates();
+        frontier.replay((url, freq) -> {
+            collectedPages.add(url, freq.simhash(), freq.length());
+            sink.accept(url, freq);
+        });
+        int collected = frontier.pages();
+        int inFlight = 0;
+        int windowed = 0;
+
+        // URLs taken from the frontier, by host, and the fetches running per host
+        LinkedHashMap<String, ArrayDeque<String>> waiting = new LinkedHashMap<>();
+        Hashtable<String, Integer> running = new Hashtable<>();
+        LinkedBlockingQueue<Page> done = new LinkedBlockingQueue<>();
+
+        frontier.add(startingURL.toString());
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            while (collected < budget) {
+                // take enough URLs from the frontier to keep every host busy
+                String next;
+                while (windowed < _concurrency * WINDOW && (next = frontier.poll()) != null) {
+                    enqueue(waiting, next);
+                    windowed++;
+                }
+
+                // start as many fetches as the limits and the page budget allow
+                Iterator<String> hosts = waiting.keySet().iterator();
+                while (hosts.hasNext() && inFlight < _concurrency && collected + inFlight < budget) {
+                    String host = hosts.next();
+                    ArrayDeque<String> urls = waiting.get(host);
+                    int active = running.getOrDefault(host, 0);
+                    while (!urls.isEmpty() && active < _perHost
+                           && inFlight < _concurrency && collected + inFlight < budget) {
+                        String url = urls.poll();
+                        executor.submit(() -> done.add(fetch(url, host)));
+                        active++;
+                        inFlight++;
+                        windowed--;
+                    }
+                    running.put(host, active);
+                    if (urls.isEmpty()) hosts.remove();
+                }
+                if (inFlight == 0) break;
+
+                Page page = done.take();
+                inFlight--;
+                running.put(page.host, running.get(page.host) - 1);
+                frontier.done(page.url);
+
+                if (page.error != null) {
+                    report(page);
+                    continue;
+                }
+                if (_skipDuplicates) {
+                    String original = collectedPages.find(page.freq.simhash(), page.freq.length());
+                    if (original != null) {
+                        System.out.println(page.url + " is a copy of " + original + ", skipping it...");
+                        Metrics.count(Metrics.DUPLICATES, 1);
+                        continue;
+                    }
+                    collectedPages.add(page.url, page.freq.simhash(), page.freq.length());
+                }
+                sink.accept(page.url, page.freq);
+                frontier.collected(page.url, page.freq);
+                collected++;
+                if (collected > 1) System.out.println("Gathering... " + (collected - 1) + " pages.");
+                for (String link : page.links) {
+                    frontier.add(link);
+                }
+                if (frontier.checkpointDue()) frontier.checkpoint();
+            }
+            // the budget is spent; abandon any fetches still running
+            executor.shutdownNow();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // URLs still claimed are saved with the checkpoint, to be fetched on resuming
+        frontier.checkpoint();
+        return Math.max(0, collected - 1);
+    }
+
+    /* Adds url to its host's queue. */
+    private static void enqueue(LinkedHashMap<String, ArrayDeque<String>> waiting, String url) {
+        waiting.computeIfAbsent(host(url), h -> new ArrayDeque<>()).add(url);
+    }
+
+    /* Returns the host of url, or "" if it has none. */
+    private static String host(String url) {
+        try {
+            String host = URI.create(url).getHost();
+            return host == null ? "" : host;
+        } catch (IllegalArgumentException e) {
+            return "";
+        }
+    }
+
+    /* Downloads and parses one page, on a virtual thread. */
+    private static Page fetch(String url, String host) {
+        Page page = new Page();
+        page.url = url;
+        page.host = host;
+        long start = Metrics.start();
+        try {
+            Document doc = Jsoup.connect(url).get();
+            page.links = new ArrayList<>();
+            for (Element link : doc.select("a[href]")) {
+                String href = link.attr("abs:href");
+                if (href.startsWith("http://") || href.startsWith("https://")) {
+                    page.links.add(href);
+                }
+            }
+            page.freq = new TermFrequency(doc);
+            Metrics.count(Metrics.PAGES_FETCHED, 1);
+        } catch (Exception e) {
+            page.error = e;
+            Metrics.count(Metrics.FETCH_ERRORS, 1);
+        }
+        Metrics.stop(Metrics.FETCH, start);
+        return page;
+    }
+
+    /* Tells the user why a page was skipped. */
+    private static void report(Page page) {
+        if (page.error instanceof HttpStatusException) {
+            System.out.println(page.url + " was unreachable, but we will continue...");
+        } else {
+            System.out.print("An unknown failure occured on " + page.url + "   ");
+            System.err.println(page.error.getMessage());
+        }
+    }
+
+}
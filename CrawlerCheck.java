@@ -0,0 +1,224 @@
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks the Crawler against a synthetic site served on the loopback
+ * interface, so it runs without a network. Page n links to five others,
+ * some by relative and some by absolute URLs with a fragment, which must
+ * all canonicalize to the same page. Every seventh page is missing, and
+ * every tenth links to an exact copy of itself, which must be left out
+ * as a duplicate. The crawl must collect every page reachable from the
+ * seed, fetch none twice, never run more than the per-host limit of
+ * fetches at once, and stop at its page budget.
+ */
+class CrawlerCheck {
+    /* The limits the crawler is run with */
+    private static final int CONCURRENCY = 16;
+    private static final int PER_HOST = 4;
+
+    /* The number of pages on the site */
+    private int _pages;
+
+    /* What the server has seen: fetches per path, and fetches running now and at most */
+    private ConcurrentHashMap<String, AtomicInteger> _fetches;
+    private AtomicInteger _running;
+    private AtomicInteger _peak;
+
+    private HttpServer _server;
+    private ExecutorService _executor;
+
+    /**
+     * Create a site and start serving it on a free port.
+     *
+     * @param pages The number of pages on the site.
+     */
+    public CrawlerCheck(int pages) throws IOException {
+        _pages = pages;
+        _fetches = new ConcurrentHashMap<>();
+        _running = new AtomicInteger();
+        _peak = new AtomicInteger();
+        _server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        _server.createContext("/", exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            _fetches.computeIfAbsent(path, p -> new AtomicInteger()).incrementAndGet();
+            // a fetch counts as running until the reply starts, as the crawler may start another once it has it
+            _peak.accumulateAndGet(_running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(2);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                _running.decrementAndGet();
+            }
+            String body = page(path);
+            byte[] bytes = (body == null ? "not found" : body).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
+            exchange.sendResponseHeaders(body == null ? 404 : 200, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        });
+        _executor = Executors.newCachedThreadPool();
+        _server.setExecutor(_executor);
+        _server.start();
+    }
+
+    /* Returns the URL of page n. */
+    private URL url(int n) throws IOException {
+        return URI.create("http://127.0.0.1:" + _server.getAddress().getPort() + "/p/" + n).toURL();
+    }
+
+    /* Returns the pages page n links to. */
+    private int[] links(int n) {
+        int[] links = new int[5];
+        for (int i = 0; i < links.length; i++) links[i] = (int) (((long) n * 5 + i + 1) % _pages);
+        return links;
+    }
+
+    /* Returns true if page n is missing. */
+    private static boolean missing(int n) {
+        return n % 7 == 3;
+    }
+
+    /* Returns the HTML served at path, or null if there is none. */
+    private String page(String path) {
+        boolean copy = path.startsWith("/copy/");
+        if (!copy && !path.startsWith("/p/")) return null;
+        int n;
+        try {
+            n = Integer.parseInt(path.substring(path.lastIndexOf('/') + 1));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (n < 0 || n >= _pages || missing(n) || (copy && n % 10 != 0)) return null;
+
+        // words of its own, so no two pages are near-duplicates
+        StringBuilder sb = new StringBuilder("<html><body><p>page ").append(n).append(' ');
+        for (int i = 0; i < 40; i++) sb.append(word(n * 40 + i)).append(' ');
+        sb.append("</p>");
+        String port = Integer.toString(_server.getAddress().getPort());
+        int[] links = links(n);
+        for (int i = 0; i < links.length; i++) {
+            String href = i % 2 == 0 ? "/p/" + links[i] : "HTTP://127.0.0.1:" + port + "/p/./" + links[i] + "#top";
+            sb.append("<a href=\"").append(href).append("\">next</a> ");
+        }
+        if (n % 10 == 0) sb.append("<a href=\"/copy/").append(n).append("\">mirror</a>");
+        return sb.append("</body></html>").toString();
+    }
+
+    /* Returns a word of letters only, as the tokenizer drops digits, unique to i. */
+    private static String word(int i) {
+        StringBuilder sb = new StringBuilder("w");
+        for (int rest = i; rest > 0 || sb.length() == 1; rest /= 26) sb.append((char) ('a' + rest % 26));
+        return sb.toString();
+    }
+
+    /* Returns the pages reachable from page 0 without passing through a missing one. */
+    private HashSet<Integer> reachable() {
+        HashSet<Integer> reached = new HashSet<>();
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        reached.add(0);
+        queue.add(0);
+        while (!queue.isEmpty()) {
+            for (int next : links(queue.poll())) {
+                if (!missing(next) && reached.add(next)) queue.add(next);
+            }
+        }
+        return reached;
+    }
+
+    /**
+     * Crawls the whole site, then part of it, and returns the number of
+     * checks that failed, printing each one.
+     */
+    public int run() throws IOException {
+        int failures = 0;
+        HashSet<Integer> expected = reachable();
+
+        Table table = new Table(url(0), 2 * _pages, new Crawler(CONCURRENCY, PER_HOST));
+        HashSet<String> names = new HashSet<>();
+        for (int doc = 0; doc < table.documents(); doc++) names.add(table.name(doc));
+        for (int n : expected) {
+            if (!names.contains(url(n).toString())) {
+                System.out.println("FAIL: page " + n + " was not collected");
+                failures++;
+            }
+        }
+        if (names.size() != table.documents() || table.documents() != expected.size()) {
+            System.out.println("FAIL: collected " + table.documents() + " pages, " + names.size()
+                               + " distinct, expected " + expected.size());
+            failures++;
+        }
+        for (String name : names) {
+            if (name.contains("/copy/")) {
+                System.out.println("FAIL: the copy " + name + " was collected");
+                failures++;
+            }
+        }
+        for (int n : expected) {
+            if (n % 10 == 0 && !_fetches.containsKey("/copy/" + n)) {
+                System.out.println("FAIL: the copy of page " + n + " was never fetched");
+                failures++;
+            }
+        }
+        for (String path : _fetches.keySet()) {
+            if (_fetches.get(path).get() > 1) {
+                System.out.println("FAIL: " + path + " was fetched " + _fetches.get(path) + " times");
+                failures++;
+            }
+        }
+        if (_peak.get() > PER_HOST) {
+            System.out.println("FAIL: " + _peak + " fetches ran at once against one host, the limit is " + PER_HOST);
+            failures++;
+        }
+
+        int budget = Math.min(50, expected.size() - 1);
+        Table part = new Table(url(0), budget, new Crawler(CONCURRENCY, PER_HOST));
+        if (part.documents() != budget + 1) {
+            System.out.println("FAIL: a crawl of " + budget + " pages collected " + part.documents()
+                               + ", expected " + (budget + 1) + " with the seed");
+            failures++;
+        }
+        return failures;
+    }
+
+    /**
+     * Stops serving the site.
+     */
+    public void close() {
+        _server.stop(0);
+        _executor.shutdownNow();
+    }
+
+    /**
+     * Runs the check from the command line:
+     * $ java CrawlerCheck [<pages>]
+     * It prints ok, or each failure, and exits with 1 if any check failed.
+     *
+     * @param args The command line argument array.
+     */
+    public static void main(String[] args) throws IOException {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        CrawlerCheck check = new CrawlerCheck(pages);
+        int failures;
+        try {
+            failures = check.run();
+        } finally {
+            check.close();
+        }
+        System.out.println(failures == 0 ? "ok" : failures + " checks failed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+}
@@ -0,0 +1,229 @@
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A sorted term dictionary kept in one byte array, mapping each term to
+ * its ordinal (its place in sorted order) and back. Terms are sorted by
+ * their UTF-8 bytes and front coded: within each block of BLOCK terms,
+ * every term after the first is stored as the length of the prefix it
+ * shares with the term before it, then the rest of its bytes. Sorted
+ * terms share long prefixes, so the dictionary is a fraction of the size
+ * of the strings themselves. A term is found by binary searching the
+ * first terms of the blocks, then decoding at most one block; the terms
+ * with a given prefix are then read in order, one after the other, so
+ * finding them costs O(log terms + prefix length + matches).
+ */
+class FrontCodedTerms {
+    /* The number of terms per block; only a block's first term is stored whole. */
+    public static final int BLOCK = 16;
+
+    /* The encoded blocks, and where each starts */
+    private byte[] _bytes;
+    private int[] _blocks;
+    private int _size;
+
+    /**
+     * Create a dictionary of terms, which may come in any order and
+     * may repeat.
+     *
+     * @param terms Normalized terms.
+     */
+    public FrontCodedTerms(Iterable<String> terms) {
+        ArrayList<byte[]> keys = new ArrayList<>();
+        for (String term : terms) keys.add(term.getBytes(StandardCharsets.UTF_8));
+        keys.sort(Arrays::compareUnsigned);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ArrayList<Integer> blocks = new ArrayList<>();
+        byte[] previous = null;
+        _size = 0;
+        for (byte[] key : keys) {
+            if (previous != null && Arrays.equals(previous, key)) continue;
+            if (_size % BLOCK == 0) {
+                blocks.add(out.size());
+                writeInt(out, key.length);
+                out.write(key, 0, key.length);
+            } else {
+                int shared = Arrays.mismatch(previous, key);
+                if (shared < 0) shared = key.length;
+                writeInt(out, shared);
+                writeInt(out, key.length - shared);
+                out.write(key, shared, key.length - shared);
+            }
+            previous = key;
+            _size++;
+        }
+        _bytes = out.toByteArray();
+        _blocks = new int[blocks.size()];
+        for (int i = 0; i < _blocks.length; i++) _blocks[i] = blocks.get(i);
+    }
+
+    /**
+     * Returns the number of distinct terms.
+     */
+    public int size() {
+        return _size;
+    }
+
+    /**
+     * Returns the number of bytes the encoded terms take.
+     */
+    public long memory() {
+        return _bytes.length + 4L * _blocks.length;
+    }
+
+    /**
+     * Returns the term with the given ordinal.
+     *
+     * @param ordinal From 0 to size() - 1.
+     */
+    public String term(int ordinal) {
+        if (ordinal < 0 || ordinal >= _size) throw new IndexOutOfBoundsException("no term " + ordinal);
+        Reader reader = new Reader(ordinal / BLOCK);
+        while (reader.ordinal() < ordinal) reader.next();
+        return reader.term();
+    }
+
+    /**
+     * Returns the ordinal of a term, or -1 if it is not in the dictionary.
+     *
+     * @param term A normalized term.
+     */
+    public int ordinal(String term) {
+        byte[] key = term.getBytes(StandardCharsets.UTF_8);
+        Reader reader = seek(key);
+        if (reader != null && reader.compareTo(key) == 0) return reader.ordinal();
+        return -1;
+    }
+
+    /**
+     * Returns the terms that start with prefix, in sorted order. They are
+     * decoded as they are iterated over.
+     *
+     * @param prefix The letters the terms start with; "" for every term.
+     */
+    public Iterable<String> withPrefix(String prefix) {
+        byte[] key = prefix.getBytes(StandardCharsets.UTF_8);
+        return () -> new Iterator<String>() {
+            private Reader _reader = seek(key);
+
+            public boolean hasNext() {
+                return _reader != null && _reader.startsWith(key);
+            }
+
+            public String next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                String term = _reader.term();
+                if (!_reader.next()) _reader = null;
+                return term;
+            }
+        };
+    }
+
+    /*
+     * Returns a reader on the first term not below key, or null if every
+     * term is below it. The block is found by binary searching the blocks'
+     * first terms, which are stored whole.
+     */
+    private Reader seek(byte[] key) {
+        if (_size == 0) return null;
+        int lo = 0;
+        int hi = _blocks.length - 1;
+        // find the last block whose first term is at most key
+        int block = 0;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (new Reader(mid).compareTo(key) <= 0) {
+                block = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        Reader reader = new Reader(block);
+        while (reader.compareTo(key) < 0) {
+            if (!reader.next()) return null;
+        }
+        return reader;
+    }
+
+    /* Appends a non-negative int as a varbyte: 7 bits a byte, high bit set on all but the last. */
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        while (value >= 0x80) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /*
+     * Decodes the terms in order from the start of a block, keeping the
+     * current term's bytes, onto which the next term's suffix is copied.
+     */
+    private class Reader {
+        private int _ordinal;
+        private int _offset;
+        private byte[] _term;
+        private int _length;
+
+        Reader(int block) {
+            _ordinal = block * BLOCK;
+            _offset = _blocks[block];
+            _term = new byte[32];
+            _length = 0;
+            read(0, readInt());
+        }
+
+        /* Copies length bytes from the encoding to _term, after its first shared bytes. */
+        private void read(int shared, int length) {
+            if (shared + length > _term.length) _term = Arrays.copyOf(_term, Math.max(shared + length, _term.length * 2));
+            System.arraycopy(_bytes, _offset, _term, shared, length);
+            _offset += length;
+            _length = shared + length;
+        }
+
+        private int readInt() {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = _bytes[_offset++];
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) return value;
+            }
+        }
+
+        /* Moves to the next term, returning false if there is none. */
+        boolean next() {
+            if (_ordinal + 1 >= _size) return false;
+            _ordinal++;
+            if (_ordinal % BLOCK == 0) {
+                read(0, readInt());
+            } else {
+                int shared = readInt();
+                read(shared, readInt());
+            }
+            return true;
+        }
+
+        int ordinal() {
+            return _ordinal;
+        }
+
+        String term() {
+            return new String(_term, 0, _length, StandardCharsets.UTF_8);
+        }
+
+        /* Compares the current term with key, byte by unsigned byte. */
+        int compareTo(byte[] key) {
+            return Arrays.compareUnsigned(_term, 0, _length, key, 0, key.length);
+        }
+
+        boolean startsWith(byte[] prefix) {
+            return _length >= prefix.length && Arrays.equals(_term, 0, prefix.length, prefix, 0, prefix.length);
+        }
+    }
+
+}
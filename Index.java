@@ -0,0 +1,71 @@
+/**
+ * Read access to an inverted index: its documents, their statistics,
+ * and the postings of each term. Table builds one in memory, and
+ * MappedIndex reads one that has been saved to disk. Queries against
+ * either go through a Searcher.
+ */
+interface Index {
+
+    /**
+     * Returns the number of documents in the index.
+     */
+    int documents();
+
+    /**
+     * Returns the path or URL of a document.
+     *
+     * @param doc A document id, from 0 to documents() - 1.
+     */
+    String name(int doc);
+
+    /**
+     * Returns the count of the most frequent term in a document.
+     *
+     * @param doc A document id.
+     */
+    int maxCount(int doc);
+
+    /**
+     * Returns the number of terms in a document, counting repeats.
+     *
+     * @param doc A document id.
+     */
+    int length(int doc);
+
+    /**
+     * Returns the number of terms in all documents.
+     */
+    long totalLength();
+
+    /**
+     * Returns the number of documents that contain term.
+     *
+     * @param term A normalized term.
+     */
+    int documentFrequency(String term);
+
+    /**
+     * Returns a cursor over the documents that contain term,
+     * or null if none do.
+     *
+     * @param term A normalized term.
+     */
+    PostingsCursor postings(String term);
+
+    /**
+     * Returns every term in the index, in no particular order.
+     */
+    Iterable<String> terms();
+
+    /**
+     * Returns every term in the index as a sorted dictionary, for
+     * expanding wildcard patterns. It is built the first time it is
+     * needed and then shared by every Searcher of the index.
+     */
+    FrontCodedTerms dictionary();
+
+    /**
+     * Returns a Searcher for querying this index.
+     */
+    Searcher searcher();
+}
@@ -0,0 +1,427 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.stream.Stream;
+
+/**
+ * Builds an index file for a corpus of any size in a fixed amount of
+ * memory, by single-pass in-memory indexing (SPIMI). Documents are
+ * inverted into postings lists in memory until the lists reach the
+ * memory budget. The lists are then written out, sorted by term, as a
+ * run in a temporary file, and memory is cleared for the documents
+ * that follow. Documents themselves go straight to the index file's
+ * writer. At the end, the runs are merged term by term into a
+ * MappedIndex file, up to MERGE_FAN_IN runs at a time.
+ *
+ * Every file is read and written as a stream. Besides the budget, only
+ * a buffer per run being merged and one term's encoded postings are
+ * ever in memory. So the heap needed depends on the budget, not on the
+ * size of the corpus.
+ *
+ * The index file is the one MappedIndex.write would save for the Table
+ * of the same files, with the same document ids.
+ */
+class IndexBuilder implements Closeable {
+    /* The default memory budget for postings. */
+    public static final long MEMORY_BUDGET = 256L << 20;
+
+    /* The most runs merged at once; more are first merged into fewer, longer runs. */
+    public static final int MERGE_FAN_IN = 64;
+
+    /* The number of files tokenized in parallel before they are added in order. */
+    private static final int CHUNK = 1024;
+
+    /* Roughly the heap a term in memory takes besides its postings: its map entry and Postings object. */
+    private static final int TERM_OVERHEAD = 160;
+
+    /* Marks the end of a run. */
+    private static final int END_OF_RUN = -1;
+
+    /* The index file being built */
+    private Path _file;
+
+    /* Writes the index file, receiving documents as they are added */
+    private MappedIndex.Writer _writer;
+
+    /* The memory the postings in _postings may take up before they are spilled, in bytes */
+    private long _budget;
+
+    /* The postings of the documents added since the last run, and roughly their size */
+    private HashMap<String, Postings> _postings;
+    private long _memory;
+
+    /* The runs spilled so far, in document order */
+    private ArrayList<Path> _runs;
+
+    private int _documents;
+    private long _totalLength;
+
+    /* Holds one encoded posting */
+    private byte[] _scratch;
+
+    /* The folder added with addAll, and its files as they were before it was read */
+    private Path _folder;
+    private Manifest _manifest;
+    private int _folders;
+
+    /*
+     * A run being read: its current term and the postings of that term
+     * still to be read. Runs are ordered by their current term, and
+     * runs with the same term by when they were spilled.
+     */
+    private static class Run implements Comparable<Run> {
+        int number;
+        DataInputStream in;
+        byte[] key;
+        int df;
+
+        Run(int number, Path file) throws IOException {
+            this.number = number;
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16));
+        }
+
+        /* Reads the first term, or the next once the postings of the current one have been read. */
+        void advance() throws IOException {
+            int length = in.readInt();
+            if (length == END_OF_RUN) {
+                key = null;
+                return;
+            }
+            key = new byte[length];
+            in.readFully(key);
+            df = in.readInt();
+        }
+
+        public int compareTo(Run other) {
+            int cmp = Arrays.compareUnsigned(key, other.key);
+            if (cmp != 0) return cmp;
+            return Integer.compare(number, other.number);
+        }
+    }
+
+    /*
+     * Reads one term's postings from each of several runs in turn,
+     * straight from the streams. Runs hold successive documents, so
+     * the ids come out in increasing order.
+     */
+    private static class RunCursor implements PostingsCursor {
+        private Run[] _runs;
+        private int _run;
+        /* the postings left in the current run */
+        private int _left;
+        private int _doc;
+        private int _count;
+
+        RunCursor(Run[] runs) {
+            _runs = runs;
+            _run = -1;
+            _left = 0;
+            _doc = -1;
+            next();
+        }
+
+        public int doc() {
+            return _doc;
+        }
+
+        public int count() {
+            return _count;
+        }
+
+        public int next() {
+            while (_left == 0) {
+                if (++_run == _runs.length) {
+                    _doc = NO_MORE_DOCS;
+                    return _doc;
+                }
+                _left = _runs[_run].df;
+                // each run's list is encoded on its own, starting from -1
+                _doc = -1;
+            }
+            try {
+                DataInputStream in = _runs[_run].in;
+                _doc += PostingsBlocks.read(in);
+                _count = PostingsBlocks.read(in) + 1;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            _left--;
+            return _doc;
+        }
+
+        public int advance(int target) {
+            while (_doc < target) next();
+            return _doc;
+        }
+    }
+
+    /* Receives the merged terms, in order. */
+    private interface TermSink {
+        void term(byte[] key, int df, PostingsCursor postings) throws IOException;
+    }
+
+    /**
+     * Create a builder with the default memory budget.
+     *
+     * @param file Path to the index file to build.
+     */
+    public IndexBuilder(Path file) throws IOException {
+        this(file, MEMORY_BUDGET);
+    }
+
+    /**
+     * Create a builder. Runs are spilled next to the index file.
+     *
+     * @param file Path to the index file to build.
+     * @param budget The memory postings may take up before they are spilled, in bytes.
+     */
+    public IndexBuilder(Path file, long budget) throws IOException {
+        _file = file.toAbsolutePath();
+        _writer = new MappedIndex.Writer(_file);
+        _budget = budget;
+        _postings = new HashMap<>();
+        _memory = 0;
+        _runs = new ArrayList<>();
+        _documents = 0;
+        _totalLength = 0;
+        _scratch = new byte[PostingsBlocks.MAX_POSTING_BYTES];
+        _folders = 0;
+    }
+
+    /**
+     * Adds the next document, which gets the next id.
+     *
+     * @param name The document's path or URL.
+     * @param freq The TermFrequency of the document.
+     */
+    public void add(String name, TermFrequency freq) throws IOException {
+        int doc = _documents++;
+        _writer.addDocument(name, freq.maxCount(), freq.length());
+        _totalLength += freq.length();
+        Metrics.count(Metrics.DOCUMENTS, 1);
+        Metrics.count(Metrics.TERMS, freq.length());
+
+        freq.forEachTerm((term, count) -> {
+            Postings postings = _postings.get(term);
+            if (postings == null) {
+                postings = new Postings();
+                _postings.put(term, postings);
+                _memory += TERM_OVERHEAD + 2L * term.length();
+            }
+            long before = postings.memory();
+            postings.add(doc, count);
+            _memory += postings.memory() - before;
+        });
+        if (_memory >= _budget) spill();
+    }
+
+    /**
+     * Adds every file under a folder, in the order Table(Path) indexes
+     * them, and the entries of any archives among them in their place.
+     * Files are listed as they are needed, and tokenized a chunk at a
+     * time on every available core.
+     *
+     * @param dir Document path.
+     */
+    public void addAll(Path dir) throws IOException {
+        // scanned first, so that a file changed while it is read looks changed next time
+        _folder = _folders == 0 ? dir : null;
+        _manifest = _folders++ == 0 ? Manifest.scan(dir) : null;
+        try (Stream<Path> walk = Files.walk(dir)) {
+            Iterator<Path> files = walk.iterator();
+            ArrayList<Path> chunk = new ArrayList<>();
+            while (files.hasNext()) {
+                chunk.clear();
+                // a chunk ends early at an archive, whose entries come next
+                Path archive = null;
+                while (chunk.size() < CHUNK && files.hasNext() && archive == null) {
+                    Path file = files.next();
+                    if (file.toFile().isDirectory()) continue;
+                    if (Archive.isArchive(file)) archive = file;
+                    else chunk.add(file);
+                }
+                TermFrequency[] freqs = chunk.parallelStream().map(TermFrequency::new).toArray(TermFrequency[]::new);
+                for (int i = 0; i < freqs.length; i++) {
+                    add(chunk.get(i).toString(), freqs[i]);
+                }
+                if (archive != null) {
+                    Archive.index(archive, Runtime.getRuntime().availableProcessors(), entry -> true, this::add);
+                }
+            }
+        }
+    }
+
+    /**
+     * Merges the runs into the index file and moves it into place. If
+     * the file is the cached index of the one folder added with addAll
+     * (see CachedSearchEngine), the folder's manifest is saved too, so
+     * the cache is brought up to date rather than rebuilt.
+     */
+    public void finish() throws IOException {
+        if (!_postings.isEmpty()) spill();
+
+        // merge runs in order, MERGE_FAN_IN at a time, until one merge can take them all
+        while (_runs.size() > MERGE_FAN_IN) {
+            ArrayList<Path> merged = new ArrayList<>();
+            try {
+                for (int from = 0; from < _runs.size(); from += MERGE_FAN_IN) {
+                    List<Path> group = _runs.subList(from, Math.min(from + MERGE_FAN_IN, _runs.size()));
+                    Path run = newRun();
+                    merged.add(run);
+                    try (DataOutputStream out = runStream(run)) {
+                        merge(group, (key, df, postings) -> writeTerm(out, key, df, postings));
+                        out.writeInt(END_OF_RUN);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                for (Path run : merged) Files.deleteIfExists(run);
+                throw e;
+            }
+            for (Path run : _runs) Files.delete(run);
+            _runs = merged;
+        }
+
+        merge(_runs, _writer::addTerm);
+        _writer.finish(_totalLength);
+        if (_folder != null && _file.normalize().equals(CachedSearchEngine.indexFile(_folder).toAbsolutePath().normalize())) {
+            _manifest.write(CachedSearchEngine.manifestFile(_folder));
+        }
+    }
+
+    /**
+     * Deletes the runs and any other temporary files. An index file
+     * that was not finished is left as it was.
+     */
+    public void close() throws IOException {
+        _writer.close();
+        for (Path run : _runs) Files.deleteIfExists(run);
+        _runs.clear();
+    }
+
+    /* Writes the postings in memory to a new run, sorted by term, and clears them. */
+    private void spill() throws IOException {
+        String[] terms = _postings.keySet().toArray(new String[0]);
+        byte[][] keys = new byte[terms.length][];
+        Integer[] order = new Integer[terms.length];
+        for (int i = 0; i < terms.length; i++) {
+            keys[i] = terms[i].getBytes(StandardCharsets.UTF_8);
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Arrays.compareUnsigned(keys[a], keys[b]));
+
+        Path run = newRun();
+        _runs.add(run);
+        try (DataOutputStream out = runStream(run)) {
+            for (int i : order) {
+                Postings postings = _postings.get(terms[i]);
+                writeTerm(out, keys[i], postings.size(), postings.cursor());
+            }
+            out.writeInt(END_OF_RUN);
+        }
+        _postings = new HashMap<>();
+        _memory = 0;
+    }
+
+    /* Creates an empty run file next to the index file. */
+    private Path newRun() throws IOException {
+        return Files.createTempFile(_file.getParent(), _file.getFileName() + ".run", ".tmp");
+    }
+
+    /* Opens a run file for writing. */
+    private static DataOutputStream runStream(Path run) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), 1 << 16));
+    }
+
+    /*
+     * Writes one term of a run: its UTF-8 bytes, its document frequency,
+     * and its postings encoded as PostingsBlocks, as one long block.
+     */
+    private void writeTerm(DataOutputStream out, byte[] key, int df, PostingsCursor postings) throws IOException {
+        out.writeInt(key.length);
+        out.write(key);
+        out.writeInt(df);
+        int previous = -1;
+        for (int doc = postings.doc(); doc != PostingsCursor.NO_MORE_DOCS; doc = postings.next()) {
+            out.write(_scratch, 0, PostingsBlocks.encode(doc, postings.count(), previous, _scratch, 0));
+            previous = doc;
+        }
+    }
+
+    /*
+     * Merges runs, which hold successive documents, giving sink each
+     * term in order along with its postings from every run.
+     */
+    private static void merge(List<Path> files, TermSink sink) throws IOException {
+        ArrayList<Run> runs = new ArrayList<>();
+        try {
+            PriorityQueue<Run> queue = new PriorityQueue<>();
+            for (Path file : files) {
+                Run run = new Run(runs.size(), file);
+                runs.add(run);
+                run.advance();
+                if (run.key != null) queue.add(run);
+            }
+
+            ArrayList<Run> group = new ArrayList<>();
+            while (!queue.isEmpty()) {
+                // the queue gives runs with the same term in the order they were spilled
+                group.clear();
+                group.add(queue.poll());
+                while (!queue.isEmpty() && Arrays.equals(queue.peek().key, group.get(0).key)) {
+                    group.add(queue.poll());
+                }
+                int df = 0;
+                for (Run run : group) df += run.df;
+
+                try {
+                    sink.term(group.get(0).key, df, new RunCursor(group.toArray(new Run[0])));
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+                for (Run run : group) {
+                    run.advance();
+                    if (run.key != null) queue.add(run);
+                }
+            }
+        } finally {
+            for (Run run : runs) run.in.close();
+        }
+    }
+
+    /**
+     * Builds the index of a folder. Call as follows:
+     * $ java IndexBuilder <document folder path> <index file> [<memory budget in MB>]
+     * The index file can be searched with MappedIndex. Named
+     * <folder>-index.bin, it becomes the folder's cached index, and
+     * its manifest is written beside it as <folder>-manifest.bin.
+     *
+     * For example,
+     * $ java -Xmx2g IndexBuilder /data/corpus /data/corpus-index.bin 512
+     *
+     * @param args The command line argument array.
+     */
+    public static void main(String[] args) {
+        if (args.length < 2 || args.length > 3 || (args.length == 3 && !Term.isNumber(args[2]))) {
+            System.out.println("Improper arguments. The Index Builder takes the following parameters:");
+            System.out.println("     java IndexBuilder <document folder path> <index file> [<memory budget in MB>]");
+            System.exit(1);
+        }
+
+        long budget = args.length == 3 ? Long.parseLong(args[2]) << 20 : MEMORY_BUDGET;
+        try (IndexBuilder builder = new IndexBuilder(Paths.get(args[1]), budget)) {
+            builder.addAll(Paths.get(args[0]));
+            builder.finish();
+            System.out.println("Indexed " + builder._documents + " documents");
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+}
@@ -0,0 +1,94 @@
+import java.util.Arrays;
+
+/**
+ * Counts occurrences of non-negative int keys in an open-addressing hash
+ * table of primitive arrays, so counting never boxes or allocates per key.
+ */
+class IntCountMap {
+    /* marks an empty slot; keys are never negative */
+    private static final int EMPTY = -1;
+
+    private int[] _keys;
+    private int[] _counts;
+    private int _size;
+
+    /**
+     * Create an empty map.
+     */
+    public IntCountMap() {
+        _keys = new int[64];
+        _counts = new int[64];
+        Arrays.fill(_keys, EMPTY);
+        _size = 0;
+    }
+
+    /**
+     * Adds one to the count of key, returning the new count.
+     *
+     * @param key A non-negative key.
+     */
+    public int increment(int key) {
+        int mask = _keys.length - 1;
+        int i = mix(key) & mask;
+        while (_keys[i] != EMPTY) {
+            if (_keys[i] == key) return ++_counts[i];
+            i = (i + 1) & mask;
+        }
+        _keys[i] = key;
+        _counts[i] = 1;
+        _size++;
+        if (_size * 2 > _keys.length) grow();
+        return 1;
+    }
+
+    /**
+     * Returns the number of distinct keys.
+     */
+    public int size() {
+        return _size;
+    }
+
+    /**
+     * Copies the keys, in increasing order, into keys, and their counts
+     * into the same positions of counts. Both must hold size() entries.
+     *
+     * @param keys Receives the keys.
+     * @param counts Receives the counts.
+     */
+    public void toSorted(int[] keys, int[] counts) {
+        long[] pairs = new long[_size];
+        int n = 0;
+        for (int i = 0; i < _keys.length; i++) {
+            if (_keys[i] != EMPTY) pairs[n++] = ((long) _keys[i] << 32) | _counts[i];
+        }
+        // keys are non-negative, so sorting the packed pairs sorts by key
+        Arrays.sort(pairs);
+        for (int i = 0; i < n; i++) {
+            keys[i] = (int) (pairs[i] >>> 32);
+            counts[i] = (int) pairs[i];
+        }
+    }
+
+    private void grow() {
+        int[] keys = _keys;
+        int[] counts = _counts;
+        _keys = new int[keys.length * 2];
+        _counts = new int[keys.length * 2];
+        Arrays.fill(_keys, EMPTY);
+        int mask = _keys.length - 1;
+        for (int j = 0; j < keys.length; j++) {
+            if (keys[j] == EMPTY) continue;
+            int i = mix(keys[j]) & mask;
+            while (_keys[i] != EMPTY) i = (i + 1) & mask;
+            _keys[i] = keys[j];
+            _counts[i] = counts[j];
+        }
+    }
+
+    /* Spreads the bits of key, since ids are small and consecutive. */
+    private static int mix(int key) {
+        int hash = key * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+}
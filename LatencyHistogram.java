@@ -0,0 +1,110 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations in nanoseconds, in the style of HdrHistogram:
+ * each power of two is split into SUB_BUCKETS buckets of equal width, so
+ * any duration, from a nanosecond to centuries, is kept to within about
+ * 6% in a fixed thousand counters. Recording is a few arithmetic steps
+ * and one atomic add, and many threads can record at once.
+ */
+class LatencyHistogram {
+    /* The number of buckets per power of two; a power of two itself. */
+    private static final int SUB_BUCKETS = 16;
+    private static final int SUB_BITS = 4;
+
+    /* Enough buckets for every non-negative long. */
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    private AtomicLongArray _counts;
+    private LongAdder _sum;
+    private AtomicLong _max;
+
+    /**
+     * Create an empty histogram.
+     */
+    public LatencyHistogram() {
+        _counts = new AtomicLongArray(BUCKETS);
+        _sum = new LongAdder();
+        _max = new AtomicLong();
+    }
+
+    /**
+     * Records one duration.
+     *
+     * @param nanos The duration, in nanoseconds.
+     */
+    public void record(long nanos) {
+        // the clock can step backwards between threads
+        if (nanos < 0) nanos = 0;
+        _counts.incrementAndGet(bucket(nanos));
+        _sum.add(nanos);
+        _max.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * Returns the number of durations recorded.
+     */
+    public long count() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) count += _counts.get(i);
+        return count;
+    }
+
+    /**
+     * Returns the sum of the durations recorded, in nanoseconds.
+     */
+    public long sum() {
+        return _sum.sum();
+    }
+
+    /**
+     * Returns the longest duration recorded, in nanoseconds.
+     */
+    public long max() {
+        return _max.get();
+    }
+
+    /**
+     * Returns the duration that the given fraction of recorded durations
+     * are at most, in nanoseconds, or 0 if nothing has been recorded.
+     *
+     * @param quantile A fraction between 0 and 1, e.g. 0.99.
+     */
+    public long percentile(double quantile) {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = _counts.get(i);
+            total += counts[i];
+        }
+        if (total == 0) return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) return Math.min(highest(i), max());
+        }
+        return max();
+    }
+
+    /* Returns the bucket holding nanos. */
+    private static int bucket(long nanos) {
+        if (nanos < SUB_BUCKETS) return (int) nanos;
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int sub = (int) (nanos >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /* Returns the largest duration that falls in bucket. */
+    private static long highest(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        long lowest = (SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+        return lowest + (1L << (exponent - SUB_BITS)) - 1;
+    }
+
+}
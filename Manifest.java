@@ -0,0 +1,108 @@
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Hashtable;
+
+/**
+ * A record of the size and last-modified time of every file in a
+ * document folder, saved next to a cached index. Comparing the saved
+ * manifest with a fresh scan of the folder tells which documents were
+ * added, changed or deleted since the index was written.
+ */
+class Manifest {
+    /* "MOMF", to recognize manifest files */
+    private static final int MAGIC = 0x4D4F4D46;
+
+    /* each file's path, mapped to its {size, modified time in ms} */
+    private Hashtable<String, long[]> _files;
+
+    /* Create an empty manifest. */
+    private Manifest() {
+        _files = new Hashtable<>();
+    }
+
+    /**
+     * Records every file under dir. Scan a folder before indexing it, so
+     * that a file changed while it is being read looks changed next time.
+     *
+     * @param dir Document path.
+     */
+    public static Manifest scan(Path dir) throws IOException {
+        Manifest manifest = new Manifest();
+        long start = Metrics.start();
+        Path[] files = Files.walk(dir).toArray(Path[]::new);
+        Metrics.stop(Metrics.WALK, start);
+        for (Path file : files) {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            if (!attributes.isDirectory()) {
+                manifest._files.put(file.toString(),
+                    new long[] { attributes.size(), attributes.lastModifiedTime().toMillis() });
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * Reads a manifest written by write. A missing file reads as an
+     * empty manifest, so every indexed document looks changed.
+     *
+     * @param file Path to the manifest file.
+     */
+    public static Manifest read(Path file) throws IOException {
+        Manifest manifest = new Manifest();
+        if (!Files.exists(file)) return manifest;
+
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) throw new IOException(file + " is not a manifest");
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                manifest._files.put(name, new long[] { in.readLong(), in.readLong() });
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * Saves the manifest to file.
+     *
+     * @param file Path to the manifest file.
+     */
+    public void write(Path file) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(_files.size());
+            for (String name : _files.keySet()) {
+                long[] entry = _files.get(name);
+                out.writeUTF(name);
+                out.writeLong(entry[0]);
+                out.writeLong(entry[1]);
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Returns true if the file is in both manifests with the same
+     * size and modification time.
+     *
+     * @param name The file's path, as a document name.
+     * @param other Another manifest of the same folder.
+     */
+    public boolean unchanged(String name, Manifest other) {
+        long[] mine = _files.get(name);
+        long[] theirs = other._files.get(name);
+        return mine != null && theirs != null && mine[0] == theirs[0] && mine[1] == theirs[1];
+    }
+
+    /**
+     * Returns the paths of all files in the manifest.
+     */
+    public Iterable<String> files() {
+        return _files.keySet();
+    }
+
+}
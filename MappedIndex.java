@@ -0,0 +1,473 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * An Index that is read straight from a memory-mapped file written by
+ * MappedIndex.write. Opening one only maps the file and checks its
+ * header, so it takes the same time whatever the size of the index,
+ * and processes that map the same file share one page-cached copy.
+ *
+ * The file (version 2, big-endian, at most 2GB) is laid out as:
+ *   header    magic, version, documents, terms, totalLength,
+ *             and the offsets of the five sections below
+ *   docs      per document: name offset, name length, max count, length
+ *   names     the UTF-8 bytes of every document name
+ *   termBytes the UTF-8 bytes of every term
+ *   postings  per term, a skip table of (last document id, data offset)
+ *             for each block, then the blocks, encoded as PostingsBlocks
+ *   terms     per term, sorted by UTF-8 bytes: term offset, term length,
+ *             document frequency, postings offset
+ */
+class MappedIndex implements Index {
+    /* "MOOG", to recognize index files */
+    private static final int MAGIC = 0x4D4F4F47;
+    /* bumped whenever the layout changes */
+    private static final int VERSION = 2;
+
+    private static final int HEADER_SIZE = 48;
+    private static final int DOC_RECORD = 16;
+    private static final int TERM_RECORD = 16;
+    private static final int SKIP_RECORD = 8;
+
+    /* the whole file; only absolute gets are used, so it can be shared */
+    private MappedByteBuffer _buffer;
+    private int _documents;
+    private int _terms;
+    private long _totalLength;
+    private int _docsOffset;
+    private int _namesOffset;
+    private int _termsOffset;
+    private int _termBytesOffset;
+    private int _postingsOffset;
+
+    /* the searcher for this index, with the default settings */
+    private Searcher _searcher;
+    /* the terms, front coded, made for the first wildcard query */
+    private volatile FrontCodedTerms _dictionary;
+
+    /* Maps file and reads its header. */
+    private MappedIndex(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(file + " is not a Moogle index");
+            }
+            _buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (_buffer.getInt(0) != MAGIC) {
+            throw new IOException(file + " is not a Moogle index");
+        }
+        if (_buffer.getInt(4) != VERSION) {
+            throw new IOException(file + " is version " + _buffer.getInt(4) + ", expected " + VERSION);
+        }
+        _documents = _buffer.getInt(8);
+        _terms = _buffer.getInt(12);
+        _totalLength = _buffer.getLong(16);
+        _docsOffset = _buffer.getInt(24);
+        _namesOffset = _buffer.getInt(28);
+        _termsOffset = _buffer.getInt(32);
+        _termBytesOffset = _buffer.getInt(36);
+        _postingsOffset = _buffer.getInt(40);
+        _searcher = new Searcher(this);
+    }
+
+    /**
+     * Opens an index file written by write.
+     *
+     * @param file Path to the index file.
+     */
+    public static MappedIndex open(Path file) throws IOException {
+        long start = Metrics.start();
+        MappedIndex index = new MappedIndex(file);
+        Metrics.stop(Metrics.CACHE_LOAD, start);
+        return index;
+    }
+
+    /**
+     * Writes an index to file. The file is written next to its final
+     * location and then moved into place, so readers never see half
+     * of an index. The index must not change while it is written; for
+     * a Table that files may be added to, pass its snapshot().
+     *
+     * @param index The index to save.
+     * @param file Path to the index file.
+     */
+    public static void write(Index index, Path file) throws IOException {
+        long start = Metrics.start();
+
+        // keep the terms some document still contains
+        ArrayList<String> present = new ArrayList<>();
+        ArrayList<Integer> frequencies = new ArrayList<>();
+        for (String term : index.terms()) {
+            int frequency = index.documentFrequency(term);
+            if (frequency > 0) {
+                present.add(term);
+                frequencies.add(frequency);
+            }
+        }
+
+        // sort terms by their UTF-8 bytes, the order lookups search in
+        int count = present.size();
+        byte[][] keys = new byte[count][];
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = present.get(i).getBytes(StandardCharsets.UTF_8);
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Arrays.compareUnsigned(keys[a], keys[b]));
+
+        try (Writer writer = new Writer(file)) {
+            for (int doc = 0; doc < index.documents(); doc++) {
+                writer.addDocument(index.name(doc), index.maxCount(doc), index.length(doc));
+            }
+            for (int i : order) {
+                writer.addTerm(keys[i], frequencies.get(i), index.postings(present.get(i)));
+            }
+            writer.finish(index.totalLength());
+        }
+        Metrics.stop(Metrics.CACHE_SAVE, start);
+    }
+
+    /**
+     * Writes an index file a piece at a time, so that the index being
+     * saved never has to be in memory as a whole. Documents are added in
+     * id order and terms in increasing order of their UTF-8 bytes; finish
+     * then puts the file together. The layout needs the size of every
+     * section before it, so each section is first written to a temporary
+     * file of its own next to the index file, and the sections are then
+     * copied into the index file one after another.
+     */
+    static class Writer implements Closeable {
+        /* The sections, in the order they appear in the file. */
+        private static final int DOCS = 0;
+        private static final int NAMES = 1;
+        private static final int TERM_BYTES = 2;
+        private static final int POSTINGS = 3;
+        private static final int TERMS = 4;
+        private static final String[] SECTIONS = { "docs", "names", "termBytes", "postings", "terms" };
+
+        private Path _file;
+        /* the index file, written next to its final location */
+        private Path _temp;
+        private Path[] _sections;
+        private DataOutputStream[] _outs;
+
+        private int _documents;
+        private int _terms;
+        /* the bytes written to the names and termBytes sections so far */
+        private long _namesLength;
+        private long _termBytesLength;
+        /* the last term added, to check that terms come in order */
+        private byte[] _lastKey;
+
+        /* buffers reused by writePostings */
+        private byte[] _data;
+        private int[] _docs;
+        private int[] _counts;
+
+        /**
+         * Create a writer for an index file. Nothing is written to file
+         * itself until finish.
+         *
+         * @param file Path to the index file.
+         */
+        Writer(Path file) throws IOException {
+            _file = file;
+            _temp = file.resolveSibling(file.getFileName() + ".tmp");
+            _sections = new Path[SECTIONS.length];
+            _outs = new DataOutputStream[SECTIONS.length];
+            try {
+                for (int i = 0; i < SECTIONS.length; i++) {
+                    _sections[i] = file.resolveSibling(file.getFileName() + "." + SECTIONS[i] + ".tmp");
+                    _outs[i] = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(_sections[i]), 1 << 16));
+                }
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+            _data = new byte[PostingsBlocks.BLOCK_SIZE * PostingsBlocks.MAX_POSTING_BYTES];
+            _docs = new int[PostingsBlocks.BLOCK_SIZE];
+            _counts = new int[PostingsBlocks.BLOCK_SIZE];
+        }
+
+        /**
+         * Adds the next document.
+         *
+         * @param name The document's path or URL.
+         * @param maxCount The count of the document's most frequent term.
+         * @param length The number of terms in the document.
+         */
+        void addDocument(String name, int maxCount, int length) throws IOException {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            DataOutputStream docs = _outs[DOCS];
+            docs.writeInt((int) _namesLength);
+            docs.writeInt(bytes.length);
+            docs.writeInt(maxCount);
+            docs.writeInt(length);
+            _outs[NAMES].write(bytes);
+            _namesLength += bytes.length;
+            _documents++;
+        }
+
+        /**
+         * Adds the next term and its postings, which must not be empty.
+         *
+         * @param key The term's UTF-8 bytes, after those of the last term added.
+         * @param df The number of documents containing the term.
+         * @param postings A cursor over exactly df postings.
+         */
+        void addTerm(byte[] key, int df, PostingsCursor postings) throws IOException {
+            if (_lastKey != null && Arrays.compareUnsigned(_lastKey, key) >= 0) {
+                throw new IllegalArgumentException("terms must be added in increasing order");
+            }
+            _lastKey = key;
+            DataOutputStream terms = _outs[TERMS];
+            terms.writeInt((int) _termBytesLength);
+            terms.writeInt(key.length);
+            terms.writeInt(df);
+            terms.writeInt(_outs[POSTINGS].size());
+            _outs[TERM_BYTES].write(key);
+            _termBytesLength += key.length;
+            _data = writePostings(postings, df, _outs[POSTINGS], _data, _docs, _counts);
+            _terms++;
+        }
+
+        /**
+         * Puts the index file together and moves it into place.
+         *
+         * @param totalLength The number of terms in all documents.
+         */
+        void finish(long totalLength) throws IOException {
+            long[] offsets = new long[SECTIONS.length + 1];
+            offsets[0] = HEADER_SIZE;
+            for (int i = 0; i < SECTIONS.length; i++) {
+                _outs[i].close();
+                offsets[i + 1] = offsets[i] + Files.size(_sections[i]);
+            }
+            // DataOutputStream.size stops counting at Integer.MAX_VALUE, so the postings offsets are only good below it
+            if (offsets[SECTIONS.length] >= Integer.MAX_VALUE) {
+                throw new IOException("index is too large for a version " + VERSION + " index file");
+            }
+
+            try (FileChannel channel = FileChannel.open(_temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC);
+                header.putInt(VERSION);
+                header.putInt(_documents);
+                header.putInt(_terms);
+                header.putLong(totalLength);
+                header.putInt((int) offsets[DOCS]);
+                header.putInt((int) offsets[NAMES]);
+                header.putInt((int) offsets[TERMS]);
+                header.putInt((int) offsets[TERM_BYTES]);
+                header.putInt((int) offsets[POSTINGS]);
+                // the rest of the header is left as zeros
+                header.rewind();
+                while (header.hasRemaining()) channel.write(header);
+
+                for (Path section : _sections) {
+                    try (FileChannel in = FileChannel.open(section, StandardOpenOption.READ)) {
+                        long size = in.size();
+                        for (long position = 0; position < size; ) {
+                            position += in.transferTo(position, size - position, channel);
+                        }
+                    }
+                }
+            }
+            Files.move(_temp, _file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        /**
+         * Deletes the temporary files. An index file that was not
+         * finished is left as it was.
+         */
+        public void close() throws IOException {
+            for (int i = 0; i < SECTIONS.length; i++) {
+                if (_outs[i] != null) _outs[i].close();
+                if (_sections[i] != null) Files.deleteIfExists(_sections[i]);
+            }
+            Files.deleteIfExists(_temp);
+        }
+    }
+
+    /*
+     * Writes one term's postings: its skip table, then its blocks.
+     * The blocks are encoded into data first, since the skip table
+     * needs their offsets; data is grown as needed and returned.
+     */
+    private static byte[] writePostings(PostingsCursor cursor, int df, DataOutputStream out,
+                                        byte[] data, int[] docs, int[] counts) throws IOException {
+        int blocks = (df + PostingsBlocks.BLOCK_SIZE - 1) / PostingsBlocks.BLOCK_SIZE;
+        int[] lastDocs = new int[blocks];
+        int[] offsets = new int[blocks];
+        int length = 0;
+        int previous = -1;
+        int doc = cursor.doc();
+        for (int block = 0; block < blocks; block++) {
+            int n = 0;
+            while (n < PostingsBlocks.BLOCK_SIZE && doc != PostingsCursor.NO_MORE_DOCS) {
+                docs[n] = doc;
+                counts[n] = cursor.count();
+                n++;
+                doc = cursor.next();
+            }
+            if (length + n * PostingsBlocks.MAX_POSTING_BYTES > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, length + n * PostingsBlocks.MAX_POSTING_BYTES));
+            }
+            offsets[block] = length;
+            length = PostingsBlocks.encode(docs, counts, n, previous, data, length);
+            previous = docs[n - 1];
+            lastDocs[block] = previous;
+        }
+        for (int block = 0; block < blocks; block++) {
+            out.writeInt(lastDocs[block]);
+            out.writeInt(offsets[block]);
+        }
+        out.write(data, 0, length);
+        return data;
+    }
+
+    public int documents() {
+        return _documents;
+    }
+
+    public String name(int doc) {
+        int record = _docsOffset + doc * DOC_RECORD;
+        return string(_namesOffset + _buffer.getInt(record), _buffer.getInt(record + 4));
+    }
+
+    public int maxCount(int doc) {
+        return _buffer.getInt(_docsOffset + doc * DOC_RECORD + 8);
+    }
+
+    public int length(int doc) {
+        return _buffer.getInt(_docsOffset + doc * DOC_RECORD + 12);
+    }
+
+    public long totalLength() {
+        return _totalLength;
+    }
+
+    public int documentFrequency(String term) {
+        int ordinal = find(term);
+        if (ordinal < 0) return 0;
+        else return _buffer.getInt(_termsOffset + ordinal * TERM_RECORD + 8);
+    }
+
+    public PostingsCursor postings(String term) {
+        int ordinal = find(term);
+        if (ordinal < 0) return null;
+        int record = _termsOffset + ordinal * TERM_RECORD;
+        return new Cursor(_postingsOffset + _buffer.getInt(record + 12), _buffer.getInt(record + 8));
+    }
+
+    public Iterable<String> terms() {
+        return () -> new Iterator<String>() {
+            private int _ordinal = 0;
+
+            public boolean hasNext() {
+                return _ordinal < _terms;
+            }
+
+            public String next() {
+                return term(_ordinal++);
+            }
+        };
+    }
+
+    public FrontCodedTerms dictionary() {
+        FrontCodedTerms dictionary = _dictionary;
+        if (dictionary == null) {
+            dictionary = new FrontCodedTerms(terms());
+            _dictionary = dictionary;
+        }
+        return dictionary;
+    }
+
+    public Searcher searcher() {
+        return _searcher;
+    }
+
+    /* Returns the term with the given ordinal. */
+    private String term(int ordinal) {
+        int record = _termsOffset + ordinal * TERM_RECORD;
+        return string(_termBytesOffset + _buffer.getInt(record), _buffer.getInt(record + 4));
+    }
+
+    /* Decodes length UTF-8 bytes starting at offset. */
+    private String string(int offset, int length) {
+        byte[] bytes = new byte[length];
+        _buffer.get(offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /* Binary searches the term dictionary, returning an ordinal or -1. */
+    private int find(String term) {
+        byte[] key = term.getBytes(StandardCharsets.UTF_8);
+        int lo = 0;
+        int hi = _terms - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compare(mid, key);
+            if (cmp < 0) lo = mid + 1;
+            else if (cmp > 0) hi = mid - 1;
+            else return mid;
+        }
+        return -1;
+    }
+
+    /* Compares the term with the given ordinal to key, byte by unsigned byte. */
+    private int compare(int ordinal, byte[] key) {
+        int record = _termsOffset + ordinal * TERM_RECORD;
+        int offset = _termBytesOffset + _buffer.getInt(record);
+        int length = _buffer.getInt(record + 4);
+        int n = Math.min(length, key.length);
+        for (int i = 0; i < n; i++) {
+            int cmp = Byte.toUnsignedInt(_buffer.get(offset + i)) - Byte.toUnsignedInt(key[i]);
+            if (cmp != 0) return cmp;
+        }
+        return length - key.length;
+    }
+
+    /* A cursor that decodes one term's blocks straight from the map. */
+    private class Cursor extends BlockCursor {
+        /* where the skip table starts, and where the blocks start */
+        private int _skips;
+        private int _data;
+        private int _size;
+        private int _blocks;
+
+        Cursor(int start, int size) {
+            _size = size;
+            _blocks = (size + PostingsBlocks.BLOCK_SIZE - 1) / PostingsBlocks.BLOCK_SIZE;
+            _skips = start;
+            _data = start + _blocks * SKIP_RECORD;
+            start();
+        }
+
+        protected int blocks() {
+            return _blocks;
+        }
+
+        protected int lastDoc(int block) {
+            return _buffer.getInt(_skips + block * SKIP_RECORD);
+        }
+
+        protected int decode(int block, int[] docs, int[] counts) {
+            int n = Math.min(PostingsBlocks.BLOCK_SIZE, _size - block * PostingsBlocks.BLOCK_SIZE);
+            int previous = block == 0 ? -1 : lastDoc(block - 1);
+            int offset = _data + _buffer.getInt(_skips + block * SKIP_RECORD + 4);
+            PostingsBlocks.decode(_buffer, offset, n, previous, docs, counts);
+            return n;
+        }
+    }
+
+}
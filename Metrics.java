@@ -0,0 +1,243 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.*;
+
+/**
+ * Timers and counters for each phase of indexing and searching, to find
+ * out which one is slow. Metrics are off unless the JVM is started with
+ * -Dmoogle.metrics=true. ENABLED is a constant, so when metrics are off
+ * the JIT removes every timer and counter call outright.
+ *
+ * A phase is timed like this:
+ *
+ *   long start = Metrics.start();
+ *   ...
+ *   Metrics.stop(Metrics.TOKENIZE, start);
+ *
+ * When enabled, the metrics are registered with JMX as moogle:type=Metrics
+ * and SearchServer serves them at /metrics. prometheus() gives them in the
+ * Prometheus text format, which is also written to the file named by
+ * -Dmoogle.metrics.dump=<file> when the JVM exits.
+ */
+class Metrics {
+    /* Whether metrics are collected at all. */
+    public static final boolean ENABLED = Boolean.getBoolean("moogle.metrics");
+
+    /* Every timer and counter by name, in the order they are declared, with their help text */
+    private static final LinkedHashMap<String, LatencyHistogram> TIMERS = new LinkedHashMap<>();
+    private static final LinkedHashMap<String, LongAdder> COUNTERS = new LinkedHashMap<>();
+    private static final LinkedHashMap<String, String> HELP = new LinkedHashMap<>();
+
+    /* The quantiles reported for each timer. */
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+    public static final LatencyHistogram WALK = timer("moogle_walk", "Listing the files of a document folder");
+    public static final LatencyHistogram TOKENIZE = timer("moogle_tokenize", "Tokenizing and counting one document");
+    public static final LatencyHistogram BUILD = timer("moogle_build", "Building a Table from files");
+    public static final LatencyHistogram CACHE_LOAD = timer("moogle_cache_load", "Opening a cached index");
+    public static final LatencyHistogram CACHE_SAVE = timer("moogle_cache_save", "Writing a cached index");
+    public static final LatencyHistogram IDF = timer("moogle_idf", "Computing the idf of a term");
+    public static final LatencyHistogram SCORE = timer("moogle_score", "Scoring every document that contains a term");
+    public static final LatencyHistogram TOP_K = timer("moogle_top_k", "Scoring and selecting the top k documents for a query");
+    public static final LatencyHistogram FETCH = timer("moogle_fetch", "Fetching and parsing one web page");
+    public static final LatencyHistogram REQUEST = timer("moogle_request", "Answering one search request");
+
+    public static final LongAdder DOCUMENTS = counter("moogle_documents", "Documents indexed");
+    public static final LongAdder TERMS = counter("moogle_terms", "Terms indexed, counting repeats");
+    public static final LongAdder BYTES_READ = counter("moogle_bytes_read", "Bytes of documents read from files");
+    public static final LongAdder PAGES_FETCHED = counter("moogle_pages_fetched", "Web pages fetched");
+    public static final LongAdder FETCH_ERRORS = counter("moogle_fetch_errors", "Web pages that could not be fetched");
+    public static final LongAdder READ_ERRORS = counter("moogle_read_errors", "Archives that could not be read to the end");
+    public static final LongAdder DUPLICATES = counter("moogle_duplicates", "Documents left out as near-duplicates");
+    public static final LongAdder CACHE_HITS = counter("moogle_cache_hits", "Queries answered from a QueryCache");
+    public static final LongAdder CACHE_MISSES = counter("moogle_cache_misses", "Queries a QueryCache had to compute");
+
+    static {
+        if (ENABLED) {
+            register();
+            String dump = System.getProperty("moogle.metrics.dump");
+            if (dump != null) {
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    try {
+                        Files.write(Paths.get(dump), prometheus().getBytes(StandardCharsets.UTF_8));
+                    } catch (IOException e) {
+                        System.err.println("Could not write metrics to " + dump + ": " + e.getMessage());
+                    }
+                }));
+            }
+        }
+    }
+
+    /* Only static members. */
+    private Metrics() {
+    }
+
+    /* Declares a timer. */
+    private static LatencyHistogram timer(String name, String help) {
+        LatencyHistogram timer = new LatencyHistogram();
+        TIMERS.put(name, timer);
+        HELP.put(name, help);
+        return timer;
+    }
+
+    /* Declares a counter. */
+    private static LongAdder counter(String name, String help) {
+        LongAdder counter = new LongAdder();
+        COUNTERS.put(name, counter);
+        HELP.put(name, help);
+        return counter;
+    }
+
+    /**
+     * Returns the time to pass to stop, or 0 if metrics are off.
+     */
+    public static long start() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records the time since start in timer, if metrics are on.
+     *
+     * @param timer The phase being timed.
+     * @param start What start returned when the phase began.
+     */
+    public static void stop(LatencyHistogram timer, long start) {
+        if (ENABLED) timer.record(System.nanoTime() - start);
+    }
+
+    /**
+     * Adds n to counter, if metrics are on.
+     *
+     * @param counter The counter.
+     * @param n The amount to add.
+     */
+    public static void count(LongAdder counter, long n) {
+        if (ENABLED) counter.add(n);
+    }
+
+    /**
+     * Returns every metric in the Prometheus text format: each timer as
+     * a summary in seconds, and each counter with a _total suffix.
+     */
+    public static String prometheus() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, LatencyHistogram> entry : TIMERS.entrySet()) {
+            String name = entry.getKey() + "_seconds";
+            LatencyHistogram timer = entry.getValue();
+            sb.append("# HELP ").append(name).append(' ').append(HELP.get(entry.getKey())).append('\n');
+            sb.append("# TYPE ").append(name).append(" summary\n");
+            for (double quantile : QUANTILES) {
+                sb.append(name).append("{quantile=\"").append(quantile).append("\"} ")
+                  .append(seconds(timer.percentile(quantile))).append('\n');
+            }
+            sb.append(name).append("_sum ").append(seconds(timer.sum())).append('\n');
+            sb.append(name).append("_count ").append(timer.count()).append('\n');
+        }
+        for (Map.Entry<String, LongAdder> entry : COUNTERS.entrySet()) {
+            String name = entry.getKey() + "_total";
+            sb.append("# HELP ").append(name).append(' ').append(HELP.get(entry.getKey())).append('\n');
+            sb.append("# TYPE ").append(name).append(" counter\n");
+            sb.append(name).append(' ').append(entry.getValue().sum()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /* Formats a duration in nanoseconds as seconds. */
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.9f", nanos / 1e9);
+    }
+
+    /* Registers the metrics with the platform MBean server. */
+    private static void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MBean(), new ObjectName("moogle:type=Metrics"));
+        } catch (JMException e) {
+            System.err.println("Could not register metrics with JMX: " + e.getMessage());
+        }
+    }
+
+    /*
+     * Shows the metrics as read-only JMX attributes: each counter by its
+     * name, and for each timer, <name>_count and its mean, quantiles and
+     * maximum in milliseconds, e.g. moogle_top_k_p99_ms.
+     */
+    private static class MBean implements DynamicMBean {
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            LongAdder counter = COUNTERS.get(attribute);
+            if (counter != null) return counter.sum();
+
+            int split = attribute.lastIndexOf('_', attribute.endsWith("_ms") ? attribute.length() - 4 : attribute.length());
+            LatencyHistogram timer = split < 0 ? null : TIMERS.get(attribute.substring(0, split));
+            if (timer != null) {
+                String statistic = attribute.substring(split + 1);
+                if (statistic.equals("count")) return timer.count();
+                if (statistic.equals("mean_ms")) {
+                    long count = timer.count();
+                    return count == 0 ? 0.0 : timer.sum() / 1e6 / count;
+                }
+                if (statistic.equals("max_ms")) return timer.max() / 1e6;
+                for (double quantile : QUANTILES) {
+                    if (statistic.equals(quantileName(quantile) + "_ms")) return timer.percentile(quantile) / 1e6;
+                }
+            }
+            throw new AttributeNotFoundException(attribute);
+        }
+
+        public AttributeList getAttributes(String[] attributes) {
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                try {
+                    list.add(new Attribute(attribute, getAttribute(attribute)));
+                } catch (AttributeNotFoundException e) {
+                    // JMX leaves unknown attributes out of the list
+                }
+            }
+            return list;
+        }
+
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException(attribute.getName() + " is read-only");
+        }
+
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        public Object invoke(String action, Object[] params, String[] signature) throws MBeanException {
+            throw new MBeanException(new UnsupportedOperationException(action));
+        }
+
+        public MBeanInfo getMBeanInfo() {
+            ArrayList<MBeanAttributeInfo> attributes = new ArrayList<>();
+            for (String name : COUNTERS.keySet()) {
+                attributes.add(new MBeanAttributeInfo(name, "long", HELP.get(name), true, false, false));
+            }
+            for (String name : TIMERS.keySet()) {
+                attributes.add(new MBeanAttributeInfo(name + "_count", "long", HELP.get(name) + ": count", true, false, false));
+                attributes.add(new MBeanAttributeInfo(name + "_mean_ms", "double", HELP.get(name) + ": mean", true, false, false));
+                for (double quantile : QUANTILES) {
+                    String statistic = quantileName(quantile);
+                    attributes.add(new MBeanAttributeInfo(name + "_" + statistic + "_ms", "double",
+                        HELP.get(name) + ": " + statistic, true, false, false));
+                }
+                attributes.add(new MBeanAttributeInfo(name + "_max_ms", "double", HELP.get(name) + ": maximum", true, false, false));
+            }
+            return new MBeanInfo(Metrics.class.getName(), "Moogle search engine metrics",
+                attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+        }
+    }
+
+    /* Names a quantile as a percentile, e.g. 0.999 as p99.9. */
+    private static String quantileName(double quantile) {
+        String percent = String.format(Locale.ROOT, "%s", quantile * 100).replaceAll("\\.0$", "");
+        return "p" + percent;
+    }
+
+}
@@ -0,0 +1,162 @@
+import java.util.HashSet;
+
+/**
+ * An Index made of several indexes one after another: the documents of
+ * the first part keep their ids, those of the second follow them, and
+ * so on. Document frequencies and lengths are summed over the parts, so
+ * idf comes out as if the parts were one index. Nothing is copied: this
+ * is a view, used by SegmentedIndex to search its segments together and
+ * to write several segments out as one with MappedIndex.write.
+ */
+class MultiIndex implements Index {
+    /* the indexes, in id order */
+    private Index[] _parts;
+    /* _bases[i] is the id of the first document of part i; the last entry is documents() */
+    private int[] _bases;
+    private long _totalLength;
+    private Searcher _searcher;
+    private volatile FrontCodedTerms _dictionary;
+
+    /**
+     * Create the combined view. The parts must not change while it is used.
+     *
+     * @param parts The indexes to put one after another.
+     */
+    public MultiIndex(Index[] parts) {
+        _parts = parts;
+        _bases = new int[parts.length + 1];
+        _totalLength = 0;
+        for (int i = 0; i < parts.length; i++) {
+            _bases[i + 1] = _bases[i] + parts[i].documents();
+            _totalLength += parts[i].totalLength();
+        }
+        _searcher = new Searcher(this);
+    }
+
+    public int documents() {
+        return _bases[_parts.length];
+    }
+
+    public String name(int doc) {
+        int part = part(doc);
+        return _parts[part].name(doc - _bases[part]);
+    }
+
+    public int maxCount(int doc) {
+        int part = part(doc);
+        return _parts[part].maxCount(doc - _bases[part]);
+    }
+
+    public int length(int doc) {
+        int part = part(doc);
+        return _parts[part].length(doc - _bases[part]);
+    }
+
+    public long totalLength() {
+        return _totalLength;
+    }
+
+    public int documentFrequency(String term) {
+        int frequency = 0;
+        for (Index part : _parts) frequency += part.documentFrequency(term);
+        return frequency;
+    }
+
+    public PostingsCursor postings(String term) {
+        PostingsCursor[] cursors = new PostingsCursor[_parts.length];
+        boolean found = false;
+        for (int i = 0; i < _parts.length; i++) {
+            cursors[i] = _parts[i].postings(term);
+            if (cursors[i] != null) found = true;
+        }
+        if (!found) return null;
+        return new Cursor(cursors);
+    }
+
+    public Iterable<String> terms() {
+        if (_parts.length == 1) return _parts[0].terms();
+        HashSet<String> terms = new HashSet<>();
+        for (Index part : _parts) {
+            for (String term : part.terms()) terms.add(term);
+        }
+        return terms;
+    }
+
+    public FrontCodedTerms dictionary() {
+        // a single part, as after a merge, already has one
+        if (_parts.length == 1) return _parts[0].dictionary();
+        FrontCodedTerms dictionary = _dictionary;
+        if (dictionary == null) {
+            dictionary = new FrontCodedTerms(terms());
+            _dictionary = dictionary;
+        }
+        return dictionary;
+    }
+
+    public Searcher searcher() {
+        return _searcher;
+    }
+
+    /* Returns the part holding doc, by binary search of the bases. */
+    private int part(int doc) {
+        int lo = 0;
+        int hi = _parts.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (_bases[mid] <= doc) lo = mid;
+            else hi = mid - 1;
+        }
+        return lo;
+    }
+
+    /* Walks the parts' cursors in turn, shifting their ids by the part's base. */
+    private class Cursor implements PostingsCursor {
+        private PostingsCursor[] _cursors;
+        private int _part;
+        private int _doc;
+
+        Cursor(PostingsCursor[] cursors) {
+            _cursors = cursors;
+            _part = 0;
+            _doc = settle();
+        }
+
+        public int doc() {
+            return _doc;
+        }
+
+        public int count() {
+            return _cursors[_part].count();
+        }
+
+        public int next() {
+            if (_doc == NO_MORE_DOCS) return _doc;
+            _cursors[_part].next();
+            _doc = settle();
+            return _doc;
+        }
+
+        public int advance(int target) {
+            if (target <= _doc) return _doc;
+            // parts that end before the target are skipped whole
+            while (_part < _cursors.length && _bases[_part + 1] <= target) _part++;
+            if (_part < _cursors.length && _cursors[_part] != null) {
+                _cursors[_part].advance(target - _bases[_part]);
+            }
+            _doc = settle();
+            return _doc;
+        }
+
+        /* Moves on from exhausted parts to the next posting in a later one. */
+        private int settle() {
+            for (; _part < _cursors.length; _part++) {
+                PostingsCursor cursor = _cursors[_part];
+                if (cursor != null && cursor.doc() != NO_MORE_DOCS) {
+                    return cursor.doc() + _bases[_part];
+                }
+            }
+            return NO_MORE_DOCS;
+        }
+    }
+
+}
@@ -0,0 +1,107 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Finds documents that are near-duplicates of ones seen before, by the
+ * SimHash fingerprints TermFrequency computes. Two documents whose
+ * fingerprints differ in at most DISTANCE of their 64 bits, and whose
+ * lengths differ by at most a tenth, count as the same text: a copy with
+ * a few words changed, a mirror with its own header, and so on. (Texts
+ * drawn from the same common words can share a fingerprint by chance,
+ * but rarely at the same length.) A document of fewer than MIN_LENGTH
+ * terms is never a duplicate: its fingerprint rests on too few words to
+ * tell a copy from a text that merely shares them, and every empty
+ * document has the same one.
+ *
+ * Fingerprints are split into DISTANCE + 1 bands of bits, and each band
+ * is looked up in a hash table of the bands seen so far. Two fingerprints
+ * that close must agree on at least one whole band, so only documents
+ * sharing a band are compared, and none is missed. It is not safe to
+ * share between threads.
+ */
+class NearDuplicates {
+    /* The most bits in which two near-duplicates' fingerprints differ. */
+    public static final int DISTANCE = 3;
+
+    /* The fewest terms a document needs to be compared with others. */
+    public static final int MIN_LENGTH = 10;
+
+    /* The number of bands, and the bits in each */
+    private static final int BANDS = DISTANCE + 1;
+    private static final int BAND_BITS = 64 / BANDS;
+
+    /* The documents added, with their fingerprints and lengths */
+    private ArrayList<String> _names;
+    private ArrayList<Long> _fingerprints;
+    private ArrayList<Integer> _lengths;
+
+    /* The documents with each value of each band, keyed by band and value */
+    private HashMap<Long, ArrayList<Integer>> _bands;
+
+    /**
+     * Create an empty set of documents.
+     */
+    public NearDuplicates() {
+        _names = new ArrayList<>();
+        _fingerprints = new ArrayList<>();
+        _lengths = new ArrayList<>();
+        _bands = new HashMap<>();
+    }
+
+    /**
+     * Returns the name of the first document added that is a near-
+     * duplicate of the one given, or null if there is none or the
+     * document is shorter than MIN_LENGTH.
+     *
+     * @param fingerprint A document's SimHash.
+     * @param length The document's length, in terms.
+     */
+    public String find(long fingerprint, int length) {
+        if (length < MIN_LENGTH) return null;
+        int best = -1;
+        for (int band = 0; band < BANDS; band++) {
+            ArrayList<Integer> docs = _bands.get(key(band, fingerprint));
+            if (docs == null) continue;
+            for (int doc : docs) {
+                if ((best < 0 || doc < best) && Long.bitCount(_fingerprints.get(doc) ^ fingerprint) <= DISTANCE
+                    && 10L * Math.abs(_lengths.get(doc) - length) <= Math.max(_lengths.get(doc), length)) {
+                    best = doc;
+                }
+            }
+        }
+        return best < 0 ? null : _names.get(best);
+    }
+
+    /**
+     * Adds a document, for later ones to be compared with. One shorter
+     * than MIN_LENGTH is left out, as nothing is compared with it.
+     *
+     * @param name The document's path or URL.
+     * @param fingerprint The document's SimHash.
+     * @param length The document's length, in terms.
+     */
+    public void add(String name, long fingerprint, int length) {
+        if (length < MIN_LENGTH) return;
+        int doc = _names.size();
+        _names.add(name);
+        _fingerprints.add(fingerprint);
+        _lengths.add(length);
+        for (int band = 0; band < BANDS; band++) {
+            _bands.computeIfAbsent(key(band, fingerprint), k -> new ArrayList<>()).add(doc);
+        }
+    }
+
+    /**
+     * Returns the number of documents added that later ones are compared with.
+     */
+    public int size() {
+        return _names.size();
+    }
+
+    /* Returns the hash table key of one band of a fingerprint. */
+    private static long key(int band, long fingerprint) {
+        long bits = (fingerprint >>> (band * BAND_BITS)) & ((1L << BAND_BITS) - 1);
+        return ((long) band << BAND_BITS) | bits;
+    }
+
+}
@@ -0,0 +1,160 @@
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A postings list for a single term: the ids of the documents that
+ * contain the term, in increasing order, along with the number of
+ * times the term appears in each of them.
+ *
+ * The postings are kept compressed, as PostingsBlocks: each one is
+ * encoded as it is added, and the list remembers where each block
+ * starts and the last document id in it. Cursors decode a block at
+ * a time and use those skip pointers to jump over whole blocks.
+ */
+class Postings implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /* the encoded postings */
+    private byte[] _bytes;
+    /* the number of bytes in use */
+    private int _length;
+    /* _offsets[b] is where block b starts in _bytes */
+    private int[] _offsets;
+    /* _lastDocs[b] is the last document id in block b */
+    private int[] _lastDocs;
+    /* the number of postings */
+    private int _size;
+
+    /**
+     * Create an empty postings list.
+     */
+    public Postings() {
+        _bytes = new byte[16];
+        _length = 0;
+        _offsets = new int[1];
+        _lastDocs = new int[1];
+        _size = 0;
+    }
+
+    /**
+     * Create a copy of other, to add postings to without changing it.
+     *
+     * @param other The postings to copy.
+     */
+    public Postings(Postings other) {
+        _bytes = other._bytes.clone();
+        _length = other._length;
+        _offsets = other._offsets.clone();
+        _lastDocs = other._lastDocs.clone();
+        _size = other._size;
+    }
+
+    /**
+     * Append a posting. Documents must be added in increasing id order.
+     *
+     * @param doc id of a document containing the term.
+     * @param count number of times the term appears in doc.
+     */
+    public void add(int doc, int count) {
+        int block = _size / PostingsBlocks.BLOCK_SIZE;
+        int previous = _size == 0 ? -1 : _lastDocs[(_size - 1) / PostingsBlocks.BLOCK_SIZE];
+        if (_size % PostingsBlocks.BLOCK_SIZE == 0) {
+            // this posting starts a new block
+            if (block == _offsets.length) {
+                _offsets = Arrays.copyOf(_offsets, block * 2);
+                _lastDocs = Arrays.copyOf(_lastDocs, block * 2);
+            }
+            _offsets[block] = _length;
+        }
+        if (_length + PostingsBlocks.MAX_POSTING_BYTES > _bytes.length) {
+            _bytes = Arrays.copyOf(_bytes, Math.max(_bytes.length * 2, _length + PostingsBlocks.MAX_POSTING_BYTES));
+        }
+        _length = PostingsBlocks.encode(doc, count, previous, _bytes, _length);
+        _lastDocs[block] = doc;
+        _size++;
+    }
+
+    /**
+     * Append all of other's postings, adding offset to each of its
+     * document ids. They must all come after the ids already here.
+     *
+     * @param other Another postings list for the same term.
+     * @param offset The amount to shift other's document ids by.
+     */
+    public void addAll(Postings other, int offset) {
+        PostingsCursor cursor = other.cursor();
+        for (int doc = cursor.doc(); doc != PostingsCursor.NO_MORE_DOCS; doc = cursor.next()) {
+            add(doc + offset, cursor.count());
+        }
+    }
+
+    /**
+     * Returns the number of documents containing the term, i.e.
+     * its document frequency.
+     */
+    public int size() {
+        return _size;
+    }
+
+    /**
+     * Returns roughly how many bytes of heap the postings take up,
+     * counting the room left for growth.
+     */
+    long memory() {
+        return 64 + _bytes.length + 4L * (_offsets.length + _lastDocs.length);
+    }
+
+    /**
+     * Returns a cursor positioned on the first posting.
+     */
+    public PostingsCursor cursor() {
+        return new Cursor();
+    }
+
+    /*
+     * Writes trimmed copies of the arrays, so the room left for growth is
+     * not serialized. The list itself is left as it is, since cursors may
+     * be reading it at the same time.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        int blocks = Math.max((_size + PostingsBlocks.BLOCK_SIZE - 1) / PostingsBlocks.BLOCK_SIZE, 1);
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("_bytes", Arrays.copyOf(_bytes, _length));
+        fields.put("_length", _length);
+        fields.put("_offsets", Arrays.copyOf(_offsets, blocks));
+        fields.put("_lastDocs", Arrays.copyOf(_lastDocs, blocks));
+        fields.put("_size", _size);
+        out.writeFields();
+    }
+
+    /* A cursor that decodes this list's blocks. */
+    private class Cursor extends BlockCursor {
+        /* the list's size when the cursor was made */
+        private int _blocks;
+        private int _count;
+
+        Cursor() {
+            _count = _size;
+            _blocks = (_count + PostingsBlocks.BLOCK_SIZE - 1) / PostingsBlocks.BLOCK_SIZE;
+            start();
+        }
+
+        protected int blocks() {
+            return _blocks;
+        }
+
+        protected int lastDoc(int block) {
+            return _lastDocs[block];
+        }
+
+        protected int decode(int block, int[] docs, int[] counts) {
+            int n = Math.min(PostingsBlocks.BLOCK_SIZE, _count - block * PostingsBlocks.BLOCK_SIZE);
+            int previous = block == 0 ? -1 : _lastDocs[block - 1];
+            PostingsBlocks.decode(_bytes, _offsets[block], n, previous, docs, counts);
+            return n;
+        }
+    }
+
+}
@@ -0,0 +1,159 @@
+import java.io.DataInput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The compressed encoding shared by Postings and MappedIndex. A postings
+ * list is cut into blocks of BLOCK_SIZE postings. Within a block, each
+ * posting is its document id's gap from the previous posting's id (the
+ * first gap is from the last id of the block before), followed by its
+ * count minus one, both as variable-byte integers: seven bits per byte,
+ * low bits first, with the high bit set on every byte but the last.
+ * Gaps and counts are mostly small, so most postings take two bytes
+ * instead of eight. Whoever stores the blocks keeps each block's last
+ * document id and start offset as skip pointers; see BlockCursor.
+ */
+class PostingsBlocks {
+    /* The number of postings in every block but the last. */
+    static final int BLOCK_SIZE = 128;
+
+    /* The most bytes a single posting can take. */
+    static final int MAX_POSTING_BYTES = 10;
+
+    /* Only static methods. */
+    private PostingsBlocks() {
+    }
+
+    /**
+     * Encodes n postings into out starting at offset, returning the
+     * offset just past them. out must have room for n * MAX_POSTING_BYTES.
+     *
+     * @param docs The document ids, in increasing order.
+     * @param counts The count for each document, at least one.
+     * @param n The number of postings.
+     * @param previous The last document id before this block, or -1.
+     * @param out Receives the bytes.
+     * @param offset Where in out to start.
+     */
+    static int encode(int[] docs, int[] counts, int n, int previous, byte[] out, int offset) {
+        for (int i = 0; i < n; i++) {
+            offset = encode(docs[i], counts[i], previous, out, offset);
+            previous = docs[i];
+        }
+        return offset;
+    }
+
+    /**
+     * Encodes a single posting into out starting at offset, returning
+     * the offset just past it. out must have room for MAX_POSTING_BYTES.
+     *
+     * @param doc The document id.
+     * @param count The count, at least one.
+     * @param previous The document id of the posting before, or -1.
+     * @param out Receives the bytes.
+     * @param offset Where in out to start.
+     */
+    static int encode(int doc, int count, int previous, byte[] out, int offset) {
+        offset = write(doc - previous, out, offset);
+        return write(count - 1, out, offset);
+    }
+
+    /**
+     * Decodes n postings from in starting at offset, returning the
+     * offset just past them.
+     *
+     * @param in The encoded bytes.
+     * @param offset Where the block starts.
+     * @param n The number of postings in the block.
+     * @param previous The last document id before this block, or -1.
+     * @param docs Receives the document ids.
+     * @param counts Receives the counts.
+     */
+    static int decode(byte[] in, int offset, int n, int previous, int[] docs, int[] counts) {
+        for (int i = 0; i < n; i++) {
+            int gap = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = in[offset++];
+                gap |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            int count = 0;
+            shift = 0;
+            do {
+                b = in[offset++];
+                count |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            previous += gap;
+            docs[i] = previous;
+            counts[i] = count + 1;
+        }
+        return offset;
+    }
+
+    /**
+     * Decodes n postings from a buffer, like decode on an array, using
+     * only absolute gets so the buffer can be shared between threads.
+     *
+     * @param in The buffer holding the encoded bytes.
+     * @param offset Where the block starts.
+     * @param n The number of postings in the block.
+     * @param previous The last document id before this block, or -1.
+     * @param docs Receives the document ids.
+     * @param counts Receives the counts.
+     */
+    static int decode(ByteBuffer in, int offset, int n, int previous, int[] docs, int[] counts) {
+        for (int i = 0; i < n; i++) {
+            int gap = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = in.get(offset++);
+                gap |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            int count = 0;
+            shift = 0;
+            do {
+                b = in.get(offset++);
+                count |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            previous += gap;
+            docs[i] = previous;
+            counts[i] = count + 1;
+        }
+        return offset;
+    }
+
+    /**
+     * Reads one variable-byte integer from a stream, such as a gap or
+     * a count minus one written by encode.
+     *
+     * @param in The stream to read from.
+     */
+    static int read(DataInput in) throws IOException {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    /* Writes value, which is never negative, as a variable-byte integer. */
+    private static int write(int value, byte[] out, int offset) {
+        while ((value & ~0x7F) != 0) {
+            out[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out[offset++] = (byte) value;
+        return offset;
+    }
+
+}
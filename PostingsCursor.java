@@ -0,0 +1,32 @@
+/**
+ * A forward-only cursor over a postings list, visiting the documents
+ * that contain a term in increasing id order. Once the list runs out,
+ * doc() returns NO_MORE_DOCS.
+ */
+interface PostingsCursor {
+    /* The doc() of a cursor that has moved past its last posting. */
+    int NO_MORE_DOCS = Integer.MAX_VALUE;
+
+    /**
+     * Returns the id of the current document, or NO_MORE_DOCS.
+     */
+    int doc();
+
+    /**
+     * Returns the count of the term in the current document.
+     */
+    int count();
+
+    /**
+     * Moves to the next document, returning its id or NO_MORE_DOCS.
+     */
+    int next();
+
+    /**
+     * Moves to the first document whose id is at least target,
+     * returning its id or NO_MORE_DOCS. Never moves backwards.
+     *
+     * @param target the smallest document id of interest.
+     */
+    int advance(int target);
+}
@@ -0,0 +1,172 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import structure5.*;
+
+/**
+ * A cache of top k results for an Index, bounded by both a number of
+ * entries and an estimate of their size in bytes, evicting the least
+ * recently used entry first. Queries are keyed by their sorted terms
+ * and k, since a document's score is a sum over the terms and so does
+ * not depend on their order.
+ *
+ * The cache remembers which Searcher its entries came from. An index
+ * hands out a new Searcher whenever it changes (as Table does when a
+ * document is added, or its scorer is set), so as soon as that happens
+ * the cache empties itself rather than return stale results.
+ */
+class QueryCache {
+    /* rough per-entry and per-result overheads, in bytes */
+    private static final int ENTRY_OVERHEAD = 96;
+    private static final int RESULT_OVERHEAD = 64;
+
+    /* The index whose results are cached */
+    private Index _index;
+    private int _maxEntries;
+    private long _maxBytes;
+
+    /* entries in access order, least recently used first */
+    private LinkedHashMap<String, Vector<Association<String, Double>>> _entries;
+    /* the searcher the entries were computed with */
+    private Searcher _searcher;
+    private long _bytes;
+    private long _hits;
+    private long _misses;
+    private long _evictions;
+
+    /**
+     * Create an empty cache.
+     *
+     * @param index The index to search.
+     * @param maxEntries The most results to keep.
+     * @param maxBytes The most memory, roughly, for the results kept.
+     */
+    public QueryCache(Index index, int maxEntries, long maxBytes) {
+        _index = index;
+        _maxEntries = maxEntries;
+        _maxBytes = maxBytes;
+        _entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Returns the top K documents for query, from the cache if possible.
+     *
+     * @param query A vector of search terms.
+     * @param k The number of documents to return.
+     */
+    public Vector<Association<String, Double>> topK(Vector<String> query, int k) {
+        String key = key(query, k);
+        Searcher searcher = _index.searcher();
+        synchronized (this) {
+            if (searcher != _searcher) {
+                // the index changed since these results were computed
+                _entries.clear();
+                _bytes = 0;
+                _searcher = searcher;
+            }
+            Vector<Association<String, Double>> cached = _entries.get(key);
+            if (cached != null) {
+                _hits++;
+                Metrics.count(Metrics.CACHE_HITS, 1);
+                return copy(cached);
+            }
+            _misses++;
+            Metrics.count(Metrics.CACHE_MISSES, 1);
+        }
+
+        // compute outside the lock, so one slow query does not hold up the rest
+        Vector<Association<String, Double>> results = searcher.topK(query, k);
+        synchronized (this) {
+            if (searcher == _searcher && !_entries.containsKey(key)) {
+                _entries.put(key, copy(results));
+                _bytes += size(key, results);
+                evict();
+            }
+        }
+        return results;
+    }
+
+    /* Drops least recently used entries until the cache is within its limits. */
+    private void evict() {
+        Iterator<Map.Entry<String, Vector<Association<String, Double>>>> eldest = _entries.entrySet().iterator();
+        while ((_entries.size() > _maxEntries || _bytes > _maxBytes) && eldest.hasNext()) {
+            Map.Entry<String, Vector<Association<String, Double>>> entry = eldest.next();
+            _bytes -= size(entry.getKey(), entry.getValue());
+            eldest.remove();
+            _evictions++;
+        }
+    }
+
+    /**
+     * Empties the cache. The counters are kept.
+     */
+    public synchronized void clear() {
+        _entries.clear();
+        _bytes = 0;
+    }
+
+    /**
+     * Returns the number of queries answered from the cache.
+     */
+    public synchronized long hits() {
+        return _hits;
+    }
+
+    /**
+     * Returns the number of queries that had to be computed.
+     */
+    public synchronized long misses() {
+        return _misses;
+    }
+
+    /**
+     * Returns the number of results dropped to stay within the limits.
+     */
+    public synchronized long evictions() {
+        return _evictions;
+    }
+
+    /**
+     * Returns the number of results in the cache.
+     */
+    public synchronized int size() {
+        return _entries.size();
+    }
+
+    /**
+     * Returns the estimated memory used by the cached results, in bytes.
+     */
+    public synchronized long bytes() {
+        return _bytes;
+    }
+
+    /* The cache key: the sorted terms and k. */
+    private static String key(Vector<String> query, int k) {
+        String[] terms = new String[query.size()];
+        for (int i = 0; i < terms.length; i++) terms[i] = query.get(i);
+        Arrays.sort(terms);
+        StringBuilder sb = new StringBuilder();
+        for (String term : terms) sb.append(term).append(' ');
+        return sb.append(k).toString();
+    }
+
+    /* Estimates the memory an entry takes. */
+    private static long size(String key, Vector<Association<String, Double>> results) {
+        long size = ENTRY_OVERHEAD + 2L * key.length();
+        for (Association<String, Double> result : results) {
+            size += RESULT_OVERHEAD + 2L * result.getKey().length();
+        }
+        return size;
+    }
+
+    /* Copies results, so callers never share a cached Vector. */
+    private static Vector<Association<String, Double>> copy(Vector<Association<String, Double>> results) {
+        Vector<Association<String, Double>> copy = new Vector<>();
+        for (Association<String, Double> result : results) {
+            copy.add(new Association<String, Double>(result.getKey(), result.getValue()));
+        }
+        return copy;
+    }
+
+}
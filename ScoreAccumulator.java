@@ -0,0 +1,121 @@
+import java.util.Arrays;
+
+/**
+ * Sums the scores of a query's terms for each document, one term at a
+ * time, in an array indexed by document id. Adding a term's score for
+ * a document is an array update, with no hashing and no boxing. The
+ * documents touched so far are listed as they are first seen, so a
+ * short query on a large corpus only visits, and clears, the documents
+ * it matched. Accumulators are reused between queries, since their
+ * arrays are as long as the corpus; each is used by one thread at a time.
+ */
+class ScoreAccumulator {
+    /* each document's score so far */
+    private double[] _scores;
+    /* whether each document has been touched */
+    private boolean[] _seen;
+    /* the documents touched, in the order they were first touched */
+    private int[] _touched;
+    private int _size;
+
+    /**
+     * Create an empty accumulator.
+     *
+     * @param documents The number of documents in the index.
+     */
+    public ScoreAccumulator(int documents) {
+        _scores = new double[documents];
+        _seen = new boolean[documents];
+        _touched = new int[Math.min(documents, 1024)];
+        _size = 0;
+    }
+
+    /**
+     * Grows the accumulator to hold at least documents documents. It
+     * must be empty, as after clear.
+     *
+     * @param documents The number of documents in the index.
+     */
+    public void ensureCapacity(int documents) {
+        if (documents > _scores.length) {
+            _scores = new double[documents];
+            _seen = new boolean[documents];
+        }
+    }
+
+    /**
+     * Adds to a document's score.
+     *
+     * @param doc A document id.
+     * @param score The amount to add.
+     */
+    public void add(int doc, double score) {
+        if (!_seen[doc]) {
+            _seen[doc] = true;
+            if (_size == _touched.length) _touched = Arrays.copyOf(_touched, Math.min(_size * 2, _seen.length));
+            _touched[_size++] = doc;
+        }
+        _scores[doc] += score;
+    }
+
+    /**
+     * Returns the number of documents touched.
+     */
+    public int size() {
+        return _size;
+    }
+
+    /**
+     * Returns the id of the i-th document touched, in the order they
+     * were first touched.
+     *
+     * @param i From 0 to size() - 1.
+     */
+    public int doc(int i) {
+        return _touched[i];
+    }
+
+    /**
+     * Returns a document's score, 0 if it was not touched.
+     *
+     * @param doc A document id.
+     */
+    public double score(int doc) {
+        return _scores[doc];
+    }
+
+    /**
+     * Offers every touched document to collector in increasing id order.
+     * When most documents were touched, the arrays are scanned start to
+     * end; otherwise only the touched documents are sorted.
+     *
+     * @param collector Receives the documents.
+     * @param index The index, for the documents' names.
+     */
+    public void collect(TopKCollector collector, Index index) {
+        if (_size > _seen.length / 16) {
+            for (int doc = 0; doc < _seen.length; doc++) {
+                if (_seen[doc]) collector.collect(doc, index.name(doc), _scores[doc]);
+            }
+        } else {
+            Arrays.sort(_touched, 0, _size);
+            for (int i = 0; i < _size; i++) {
+                int doc = _touched[i];
+                collector.collect(doc, index.name(doc), _scores[doc]);
+            }
+        }
+    }
+
+    /**
+     * Clears the touched documents, so the accumulator can be reused.
+     */
+    public void clear() {
+        for (int i = 0; i < _size; i++) {
+            int doc = _touched[i];
+            _scores[doc] = 0.0;
+            _seen[doc] = false;
+        }
+        _size = 0;
+    }
+
+}
@@ -0,0 +1,29 @@
+import java.io.Serializable;
+
+/**
+ * A ranking model that scores how well a document matches a single
+ * query term. A document's score for a query is the sum of its scores
+ * for each query term. Scorers only use statistics that Table keeps
+ * for every document, so switching models never requires a reindex.
+ */
+interface Scorer extends Serializable {
+
+    /**
+     * Computes the weight of a term from how many documents contain it.
+     *
+     * @param df The number of documents containing the term.
+     * @param documents The number of documents in the corpus.
+     */
+    double idf(int df, int documents);
+
+    /**
+     * Scores one document for one term.
+     *
+     * @param count The number of times the term appears in the document.
+     * @param idf The term's weight, from idf.
+     * @param maxCount The count of the document's most frequent term.
+     * @param length The number of terms in the document.
+     * @param averageLength The average number of terms per document.
+     */
+    double score(int count, double idf, int maxCount, int length, double averageLength);
+}
@@ -8,20 +8,20 @@ import java.io.IOException;
  */
 class SearchEngine {
   
-    // The table to be used for retrieving topK with CTF-IDF scores
-    protected Table table;
+    // The index (a Table, or one read from a file) to be used for retrieving topK with CTF-IDF scores
+    protected Index index;
 
     /**
      * The constructor for a SearchEngine executes the topK ranking and prints them
      * with their scores
      * 
      * @param query is a Vector of normalized strings.
-     * @param t is a Table to be used to the search.
+     * @param index is the Table or other Index to be used to the search.
      * @param k is the number of search results to return.
      */
-    public SearchEngine(Vector<String> query, Table t, int k) {
-        table = t;
-        Vector<Association<String, Double>> topK = table.topK(query, k);
+    public SearchEngine(Vector<String> query, Index index, int k) {
+        this.index = index;
+        Vector<Association<String, Double>> topK = index.searcher().topK(query, k);
 
         // print the results
         System.out.println("\nYour search terms were: " + query);
@@ -0,0 +1,242 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.concurrent.Executors;
+import structure5.*;
+
+/**
+ * A search engine that stays running. It loads or builds the index of a
+ * document folder once, then answers queries over HTTP on the local
+ * machine, each on its own virtual thread, so a query only pays for
+ * scoring. For example:
+ *
+ *   GET /search?q=was+ronald+reagan+an+alien&k=5
+ *
+ * returns
+ *
+ *   {"query":["was","ronald","reagan","an","alien"],"k":5,
+ *    "results":[{"rank":1,"document":"ufo-test/1174.ufo","score":0.38698},...]}
+ *
+ * Results are kept in a QueryCache, whose counters GET /stats reports.
+ * With metrics on (see Metrics), GET /metrics gives them in the
+ * Prometheus text format.
+ */
+class SearchServer {
+    /* The number of results returned when a request does not give k. */
+    public static final int DEFAULT_K = 10;
+
+    /* The default limits of the result cache. */
+    public static final int CACHE_ENTRIES = 100000;
+    public static final long CACHE_BYTES = 64L << 20;
+
+    /* The index being searched */
+    private Index _index;
+
+    /* Recent results */
+    private QueryCache _cache;
+
+    /* The HTTP server answering queries */
+    private HttpServer _server;
+
+    /**
+     * Create a server for an index, listening on the loopback address,
+     * with a result cache of the default size.
+     *
+     * @param index The index to search.
+     * @param port The port to listen on, or 0 for any free port.
+     */
+    public SearchServer(Index index, int port) throws IOException {
+        this(index, port, new QueryCache(index, CACHE_ENTRIES, CACHE_BYTES));
+    }
+
+    /**
+     * Create a server for an index, listening on the loopback address.
+     * Call start to begin answering queries.
+     *
+     * @param index The index to search.
+     * @param port The port to listen on, or 0 for any free port.
+     * @param cache The cache to keep results in.
+     */
+    public SearchServer(Index index, int port, QueryCache cache) throws IOException {
+        _index = index;
+        _cache = cache;
+        _server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        _server.createContext("/search", this::handle);
+        _server.createContext("/stats", this::stats);
+        _server.createContext("/metrics", this::metrics);
+        _server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+    }
+
+    /**
+     * Starts answering queries.
+     */
+    public void start() {
+        _server.start();
+    }
+
+    /**
+     * Stops answering queries, waiting up to a second for ones in progress.
+     */
+    public void stop() {
+        _server.stop(1);
+    }
+
+    /**
+     * Returns the port the server is listening on.
+     */
+    public int port() {
+        return _server.getAddress().getPort();
+    }
+
+    /* Answers one /search request, with a 500 if answering it fails. */
+    private void handle(HttpExchange exchange) throws IOException {
+        long start = Metrics.start();
+        try {
+            search(exchange);
+        } catch (RuntimeException e) {
+            System.err.println("Could not answer " + exchange.getRequestURI() + ": " + e);
+            StringBuilder sb = new StringBuilder("{\"error\":");
+            quote(sb, "internal error: " + e);
+            respond(exchange, 500, sb.append('}').toString());
+        } finally {
+            Metrics.stop(Metrics.REQUEST, start);
+        }
+    }
+
+    /* Parses a /search request, ranks the documents and sends them. */
+    private void search(HttpExchange exchange) throws IOException {
+        String q = null;
+        String k = null;
+        String params = exchange.getRequestURI().getRawQuery();
+        if (params != null) {
+            for (String param : params.split("&")) {
+                int eq = param.indexOf('=');
+                if (eq < 0) continue;
+                String name = param.substring(0, eq);
+                String value = URLDecoder.decode(param.substring(eq + 1), StandardCharsets.UTF_8);
+                if (name.equals("q")) q = value;
+                else if (name.equals("k")) k = value;
+            }
+        }
+
+        if (q == null) {
+            respond(exchange, 400, "{\"error\":\"missing query parameter q\"}");
+            return;
+        }
+        if (k != null && (k.isEmpty() || k.length() > 9 || !Term.isNumber(k) || Integer.parseInt(k) < 1)) {
+            respond(exchange, 400, "{\"error\":\"k must be a positive integer\"}");
+            return;
+        }
+
+        Vector<String> query = Term.toTerms(q);
+        int requested = k == null ? DEFAULT_K : Integer.parseInt(k);
+        // there can never be more results than documents, and a smaller k is cached under one key
+        int count = Math.min(requested, _index.documents());
+        Vector<Association<String, Double>> results = _cache.topK(query, count);
+        respond(exchange, 200, toJson(query, requested, results));
+    }
+
+    /* Answers a /metrics request in the Prometheus text format. */
+    private void metrics(HttpExchange exchange) throws IOException {
+        if (!Metrics.ENABLED) {
+            respond(exchange, 404, "{\"error\":\"metrics are off; start with -Dmoogle.metrics=true\"}");
+            return;
+        }
+        byte[] body = Metrics.prometheus().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /* Answers a /stats request with the cache counters. */
+    private void stats(HttpExchange exchange) throws IOException {
+        respond(exchange, 200, "{\"documents\":" + _index.documents() +
+                               ",\"cache\":{\"hits\":" + _cache.hits() +
+                               ",\"misses\":" + _cache.misses() +
+                               ",\"evictions\":" + _cache.evictions() +
+                               ",\"entries\":" + _cache.size() +
+                               ",\"bytes\":" + _cache.bytes() + "}}");
+    }
+
+    /* Sends a JSON response. */
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Formats the results of a query as JSON.
+     *
+     * @param query The normalized query terms.
+     * @param k The number of results asked for.
+     * @param results The results, best first.
+     */
+    public static String toJson(Vector<String> query, int k, Vector<Association<String, Double>> results) {
+        StringBuilder sb = new StringBuilder("{\"query\":[");
+        for (int i = 0; i < query.size(); i++) {
+            if (i > 0) sb.append(',');
+            quote(sb, query.get(i));
+        }
+        sb.append("],\"k\":").append(k).append(",\"results\":[");
+        for (int i = 0; i < results.size(); i++) {
+            Association<String, Double> result = results.get(i);
+            if (i > 0) sb.append(',');
+            sb.append("{\"rank\":").append(i + 1).append(",\"document\":");
+            quote(sb, result.getKey());
+            double score = result.getValue();
+            // JSON has no NaN or infinity
+            sb.append(",\"score\":").append(Double.isFinite(score) ? Double.toString(score) : "null").append('}');
+        }
+        return sb.append("]}").toString();
+    }
+
+    /* Appends str as a JSON string. */
+    private static void quote(StringBuilder sb, String str) {
+        sb.append('"');
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (c == '"' || c == '\\') sb.append('\\').append(c);
+            else if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+            else sb.append(c);
+        }
+        sb.append('"');
+    }
+
+    /**
+     * Runs the server from the command line:
+     * $ java SearchServer <document folder path> <port>
+     * The folder's cached index is used (and refreshed) if it has one;
+     * otherwise the folder is indexed and the index is cached.
+     *
+     * @param args The command line argument array.
+     */
+    public static void main(String[] args) {
+        if (args.length != 2 || !Term.isNumber(args[1])) {
+            System.out.println("Improper arguments. The Search Server takes the following parameters:");
+            System.out.println("     java SearchServer <document folder path> <port>");
+            System.exit(1);
+        }
+
+        try {
+            Index index = CachedSearchEngine.load(Paths.get(args[0]));
+            SearchServer server = new SearchServer(index, Integer.parseInt(args[1]));
+            server.start();
+            System.out.println("Answering queries at http://localhost:" + server.port() + "/search?q=<query>&k=<# of documents>");
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+}
@@ -0,0 +1,299 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.Executors;
+import structure5.*;
+
+/**
+ * One shard of a document folder that is searched by several processes
+ * at once, each holding only its part of the index in memory. The files
+ * of the folder, in the order Table(Path) indexes them, are dealt out to
+ * the shards in turn: document i goes to shard i % shards, counting each
+ * entry of an archive as a document. So a shard knows the id every one
+ * of its documents would have in a single index of the whole folder,
+ * and ShardedSearcher can break ties the way Table does.
+ *
+ * A shard answers two requests, in plain text, on the local machine:
+ *
+ *   GET /statistics
+ *
+ * returns a line with the shard's document count and total length,
+ * then the document frequency of each of its terms, one tab-separated
+ * pair per line, which ShardedSearcher sums over all shards. And
+ *
+ *   GET /search?k=10&documents=2000&length=512345&t=mars&df=12&t=face&df=40
+ *
+ * ranks the shard's documents for the normalized query terms t, scoring
+ * them with the corpus-wide documents, length and document frequencies
+ * given, so every score is exactly what a single index would give. It
+ * returns the top k as lines of global id, score and name.
+ */
+class SearchShard {
+    /* The documents of this shard */
+    private Table _table;
+
+    /* Each document's id within _table, by name */
+    private HashMap<String, Integer> _ids;
+
+    /* Which shard this is, and how many there are */
+    private int _shard;
+    private int _shards;
+
+    /* The HTTP server answering requests */
+    private HttpServer _server;
+
+    /**
+     * Create a shard, indexing its part of a folder, listening on the
+     * loopback address. Call start to begin answering requests.
+     *
+     * @param dir Document path.
+     * @param shard Which shard this is, from 0 to shards - 1.
+     * @param shards The number of shards the folder is split into.
+     * @param port The port to listen on, or 0 for any free port.
+     */
+    public SearchShard(Path dir, int shard, int shards, int port) throws IOException {
+        if (shard < 0 || shard >= shards) {
+            throw new IllegalArgumentException("shard " + shard + " is not between 0 and " + (shards - 1));
+        }
+        _shard = shard;
+        _shards = shards;
+        _table = new Table();
+        index(dir);
+        _ids = new HashMap<>();
+        for (int doc = 0; doc < _table.documents(); doc++) _ids.put(_table.name(doc), doc);
+        _server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        _server.createContext("/statistics", this::statistics);
+        _server.createContext("/search", this::search);
+        _server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+    }
+
+    /*
+     * Indexes the documents of a folder that belong to this shard, in the
+     * order Table(Path) would index them. Every archive is read through,
+     * to number its entries, but only this shard's entries are counted.
+     */
+    private void index(Path dir) throws IOException {
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        ArrayList<Path> files = new ArrayList<>();
+        int documents = 0;
+        for (Path file : Files.walk(dir).toArray(Path[]::new)) {
+            // Table skips directories without giving them an id
+            if (file.toFile().isDirectory()) continue;
+            if (!Archive.isArchive(file)) {
+                if (documents % _shards == _shard) files.add(file);
+                documents++;
+                continue;
+            }
+            addAll(files);
+            int first = documents;
+            documents += Archive.index(file, parallelism, entry -> (first + entry) % _shards == _shard,
+                                       _table::addDocument);
+        }
+        addAll(files);
+    }
+
+    /* Indexes plain files, in order, tokenizing them in parallel, and clears the list. */
+    private void addAll(ArrayList<Path> files) {
+        TermFrequency[] freqs = files.parallelStream().map(TermFrequency::new).toArray(TermFrequency[]::new);
+        for (int i = 0; i < freqs.length; i++) {
+            _table.addDocument(files.get(i).toString(), freqs[i]);
+        }
+        files.clear();
+    }
+
+    /**
+     * Starts answering requests.
+     */
+    public void start() {
+        _server.start();
+    }
+
+    /**
+     * Stops answering requests, waiting up to a second for ones in progress.
+     */
+    public void stop() {
+        _server.stop(1);
+    }
+
+    /**
+     * Returns the port the shard is listening on.
+     */
+    public int port() {
+        return _server.getAddress().getPort();
+    }
+
+    /* Answers a /statistics request. */
+    private void statistics(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0);
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8))) {
+            out.write(_table.documents() + "\t" + _table.totalLength() + "\n");
+            for (String term : _table.terms()) {
+                out.write(term + "\t" + _table.documentFrequency(term) + "\n");
+            }
+        }
+    }
+
+    /* Answers a /search request. */
+    private void search(HttpExchange exchange) throws IOException {
+        Vector<String> query = new Vector<>();
+        HashMap<String, Integer> frequencies = new HashMap<>();
+        int k = -1;
+        int documents = -1;
+        long length = -1;
+        String params = exchange.getRequestURI().getRawQuery();
+        try {
+            String term = null;
+            for (String param : params == null ? new String[0] : params.split("&")) {
+                int eq = param.indexOf('=');
+                if (eq < 0) continue;
+                String name = param.substring(0, eq);
+                String value = URLDecoder.decode(param.substring(eq + 1), StandardCharsets.UTF_8);
+                if (name.equals("k")) k = Integer.parseInt(value);
+                else if (name.equals("documents")) documents = Integer.parseInt(value);
+                else if (name.equals("length")) length = Long.parseLong(value);
+                else if (name.equals("t")) {
+                    term = value;
+                    query.add(term);
+                } else if (name.equals("df") && term != null) {
+                    frequencies.put(term, Integer.parseInt(value));
+                }
+            }
+        } catch (NumberFormatException e) {
+            respond(exchange, 400, "malformed number: " + e.getMessage() + "\n");
+            return;
+        }
+        if (k < 0 || documents < 0 || length < 0) {
+            respond(exchange, 400, "k, documents and length are required\n");
+            return;
+        }
+        if (documents < _table.documents()) {
+            respond(exchange, 400, "the corpus cannot have fewer documents than this shard's " + _table.documents() + "\n");
+            return;
+        }
+
+        // the shard's own searcher, so its accumulators are sized to the shard and reused
+        Searcher searcher = _table.searcher().withStatistics(new CorpusView(_table, documents, length, frequencies));
+        Vector<Association<String, Double>> results = searcher.topK(query, k);
+        StringBuilder sb = new StringBuilder();
+        for (Association<String, Double> result : results) {
+            sb.append(globalId(result.getKey())).append('\t')
+              .append(result.getValue()).append('\t')
+              .append(result.getKey()).append('\n');
+        }
+        respond(exchange, 200, sb.toString());
+    }
+
+    /* Returns the id a document of this shard has in the whole folder. */
+    private int globalId(String name) {
+        return _ids.get(name) * _shards + _shard;
+    }
+
+    /* Sends a plain text response. */
+    private static void respond(HttpExchange exchange, int status, String text) throws IOException {
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /*
+     * The statistics a shard's searcher scores one query with (see
+     * Searcher.withStatistics): the number of documents, their total
+     * length and the query terms' document frequencies are those of the
+     * whole corpus, while everything else is the shard's own.
+     */
+    private static class CorpusView implements Index {
+        private Index _index;
+        private int _documents;
+        private long _totalLength;
+        private HashMap<String, Integer> _frequencies;
+
+        CorpusView(Index index, int documents, long totalLength, HashMap<String, Integer> frequencies) {
+            _index = index;
+            _documents = documents;
+            _totalLength = totalLength;
+            _frequencies = frequencies;
+        }
+
+        public int documents() {
+            return _documents;
+        }
+
+        public String name(int doc) {
+            return _index.name(doc);
+        }
+
+        public int maxCount(int doc) {
+            return _index.maxCount(doc);
+        }
+
+        public int length(int doc) {
+            return _index.length(doc);
+        }
+
+        public long totalLength() {
+            return _totalLength;
+        }
+
+        public int documentFrequency(String term) {
+            Integer frequency = _frequencies.get(term);
+            if (frequency == null) return _index.documentFrequency(term);
+            else return frequency;
+        }
+
+        public PostingsCursor postings(String term) {
+            return _index.postings(term);
+        }
+
+        public Iterable<String> terms() {
+            return _index.terms();
+        }
+
+        public FrontCodedTerms dictionary() {
+            return _index.dictionary();
+        }
+
+        public Searcher searcher() {
+            return _index.searcher().withStatistics(this);
+        }
+    }
+
+    /**
+     * Runs a shard from the command line:
+     * $ java SearchShard <document folder path> <shard> <shards> <port>
+     * Once its part of the folder is indexed, it prints the port it is
+     * listening on, which may be 0 to pick any free port.
+     *
+     * @param args The command line argument array.
+     */
+    public static void main(String[] args) {
+        if (args.length != 4 || !Term.isNumber(args[1]) || !Term.isNumber(args[2]) || !Term.isNumber(args[3])) {
+            System.out.println("Improper arguments. A search shard takes the following parameters:");
+            System.out.println("     java SearchShard <document folder path> <shard> <shards> <port>");
+            System.exit(1);
+        }
+
+        // answers are small, so send them at once instead of waiting to fill a packet
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        try {
+            SearchShard shard = new SearchShard(Paths.get(args[0]), Integer.parseInt(args[1]),
+                                                Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+            shard.start();
+            System.out.println("Shard " + args[1] + " of " + args[2] + " answering at http://localhost:" + shard.port() + "/");
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+}
@@ -0,0 +1,341 @@
+import java.util.Hashtable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import structure5.*;
+
+/**
+ * Answers queries against an Index: it computes idf and per-term
+ * scores with a Scorer (TF-IDF by default) and selects the top k
+ * documents, optionally pruning documents that cannot make the cut.
+ * A Searcher assumes its index does not change; whoever changes an
+ * index should make a new Searcher for it. Searchers are safe to
+ * share between threads.
+ */
+class Searcher {
+
+    /* The index being searched */
+    private Index _index;
+
+    /* Where the number of documents, total length and document frequencies come from; usually _index */
+    private Index _statistics;
+
+    /* The ranking model used to score documents */
+    private Scorer _scorer;
+
+    /* Whether topK skips documents that cannot make the top k */
+    private boolean _pruning;
+
+    /* The average number of terms per document */
+    private double _averageLength;
+
+    /* Each term's largest score under _scorer, filled in as terms are queried */
+    private ConcurrentHashMap<String, Double> _bounds;
+
+    /* Accumulators not in use, kept to score later queries, at most one per processor */
+    private ArrayBlockingQueue<ScoreAccumulator> _accumulators;
+
+    /**
+     * Create a TF-IDF searcher without pruning.
+     *
+     * @param index The index to search.
+     */
+    public Searcher(Index index) {
+        this(index, new TfIdfScorer(), false);
+    }
+
+    /**
+     * Create a searcher. With pruning, topK uses each term's largest
+     * possible score to skip (WAND-style) documents that cannot reach
+     * the current k-th best score. The results are the same either way.
+     *
+     * @param index The index to search.
+     * @param scorer The ranking model.
+     * @param pruning true to skip non-competitive documents in topK.
+     */
+    public Searcher(Index index, Scorer scorer, boolean pruning) {
+        _index = index;
+        _statistics = index;
+        _scorer = scorer;
+        _pruning = pruning;
+        _averageLength = (double) index.totalLength() / index.documents();
+        _bounds = new ConcurrentHashMap<>();
+        _accumulators = new ArrayBlockingQueue<>(Runtime.getRuntime().availableProcessors());
+    }
+
+    /* Create a searcher of base's index, with base's settings and accumulators, scoring by statistics. */
+    private Searcher(Searcher base, Index statistics) {
+        _index = base._index;
+        _statistics = statistics;
+        _scorer = base._scorer;
+        _pruning = base._pruning;
+        _averageLength = (double) statistics.totalLength() / statistics.documents();
+        // bounds depend on the statistics, so they are not shared
+        _bounds = new ConcurrentHashMap<>();
+        _accumulators = base._accumulators;
+    }
+
+    /**
+     * Returns a searcher of the same documents that scores them as part
+     * of a larger corpus: the number of documents, their total length
+     * and each term's document frequency come from statistics, and all
+     * else from this searcher's index. It shares this searcher's
+     * accumulators, which stay sized to this index, so it is cheap to
+     * make for a single query.
+     *
+     * @param statistics The corpus-wide statistics.
+     */
+    Searcher withStatistics(Index statistics) {
+        return new Searcher(this, statistics);
+    }
+
+    /**
+     * Returns the index being searched.
+     */
+    public Index index() {
+        return _index;
+    }
+
+    /**
+     * Returns query with each wildcard pattern (see Term.toTerms)
+     * replaced by the index's terms that match it, or query itself if
+     * it has no patterns.
+     *
+     * @param query A vector of search terms.
+     */
+    public Vector<String> expand(Vector<String> query) {
+        for (String term : query) {
+            if (Term.isPattern(term)) return Term.expand(query, _index.dictionary(), _statistics::documentFrequency);
+        }
+        return query;
+    }
+
+    /**
+     * Compute inverse document frequency (IDF) for term across a corpus.
+     *
+     * @param term A string term.
+     */
+    public double idf(String term) {
+        long start = Metrics.start();
+        double idf = _scorer.idf(_statistics.documentFrequency(term), _statistics.documents());
+        Metrics.stop(Metrics.IDF, start);
+        return idf;
+    }
+
+    /**
+     * Returns the score of doc for a term that appears count times in it.
+     *
+     * @param count The number of times the term appears in doc.
+     * @param idf The term's idf.
+     * @param doc A document id.
+     */
+    double score(int count, double idf, int doc) {
+        return _scorer.score(count, idf, _index.maxCount(doc), _index.length(doc), _averageLength);
+    }
+
+    /*
+     * Returns the largest score any document can get from term, which
+     * topK uses for pruning. It is computed once per term and scorer.
+     */
+    private double bound(String term, double idf) {
+        Double bound = _bounds.get(term);
+        if (bound == null) {
+            // a negative score only lowers a total, so never count one as a gain
+            double max = 0.0;
+            PostingsCursor postings = _index.postings(term);
+            for (int doc = postings.doc(); doc != PostingsCursor.NO_MORE_DOCS; doc = postings.next()) {
+                max = Math.max(max, score(postings.count(), idf, doc));
+            }
+            bound = max;
+            _bounds.put(term, bound);
+        }
+        return bound;
+    }
+
+    /**
+     * Compute the score (TF-IDF, unless another Scorer was set) of a
+     * given search term for each document that contains it. Documents
+     * without the term would score zero, so they are left out.
+     *
+     * @param term A search term.
+     */
+    public Hashtable<String, Double> tfidf(String term) {
+        Hashtable<String, Double> _result = new Hashtable<>();
+        PostingsCursor postings = _index.postings(term);
+        if (postings == null) return _result;
+
+        long start = Metrics.start();
+        double idf = idf(term);
+        for (int doc = postings.doc(); doc != PostingsCursor.NO_MORE_DOCS; doc = postings.next()) {
+            _result.put(_index.name(doc), score(postings.count(), idf, doc));
+        }
+        Metrics.stop(Metrics.SCORE, start);
+        return _result;
+    }
+
+    /**
+     * Computes the cumulative score for each document with
+     * respect to a given query. Only documents that contain at least
+     * one of the query terms appear in the result. Wildcard patterns
+     * are expanded first.
+     *
+     * @param query A vector of search terms.
+     */
+    public Hashtable<String, Double> score(Vector<String> query) {
+        ScoreAccumulator scores = accumulate(expand(query));
+        Hashtable<String, Double> _result = new Hashtable<>();
+        for (int i = 0; i < scores.size(); i++) {
+            int doc = scores.doc(i);
+            _result.put(_index.name(doc), scores.score(doc));
+        }
+        release(scores);
+        return _result;
+    }
+
+    /*
+     * Scores the documents matching query a term at a time: each term's
+     * postings are walked start to end, adding its score for each
+     * document to a dense array. Terms are added in query order, so each
+     * total is summed exactly as topK sums it document at a time. The
+     * accumulator must be given back with release.
+     */
+    private ScoreAccumulator accumulate(Vector<String> query) {
+        // the index may have grown since a pooled accumulator was made
+        int documents = _index.documents();
+        ScoreAccumulator scores = _accumulators.poll();
+        if (scores == null) scores = new ScoreAccumulator(documents);
+        else scores.ensureCapacity(documents);
+        for (String term : query) {
+            PostingsCursor postings = _index.postings(term);
+            if (postings == null) continue;
+
+            long start = Metrics.start();
+            double idf = idf(term);
+            for (int doc = postings.doc(); doc != PostingsCursor.NO_MORE_DOCS; doc = postings.next()) {
+                scores.add(doc, score(postings.count(), idf, doc));
+            }
+            Metrics.stop(Metrics.SCORE, start);
+        }
+        return scores;
+    }
+
+    /*
+     * Clears an accumulator and keeps it for another query, unless the
+     * pool is full: after a burst of concurrent queries, only as many
+     * corpus-sized accumulators are kept as can be busy at once.
+     */
+    private void release(ScoreAccumulator scores) {
+        scores.clear();
+        _accumulators.offer(scores);
+    }
+
+    /**
+     * Returns the top K documents, highest cumulative score
+     * first. With pruning, documents are scored one at a time, in id
+     * order, by walking the postings of the query terms side by side;
+     * without it, a term at a time into a dense array, which is then
+     * read in id order. Either way they are kept in a bounded heap.
+     * Wildcard patterns are expanded first.
+     *
+     * @param query A vector of search terms.
+     * @param k The number of documents to return.
+     */
+    public Vector<Association<String, Double>> topK(Vector<String> query, int k) {
+        long start = Metrics.start();
+        query = expand(query);
+        TopKCollector collector = new TopKCollector(k);
+        if (!_pruning) {
+            ScoreAccumulator scores = accumulate(query);
+            scores.collect(collector, _index);
+            release(scores);
+            Vector<Association<String, Double>> results = collector.results();
+            Metrics.stop(Metrics.TOP_K, start);
+            return results;
+        }
+
+        // one cursor per query term, along with its idf and score bound
+        ArrayList<PostingsCursor> cursors = new ArrayList<>();
+        ArrayList<Double> idfs = new ArrayList<>();
+        ArrayList<Double> bounds = new ArrayList<>();
+        for (String term : query) {
+            PostingsCursor postings = _index.postings(term);
+            if (postings == null) continue;
+            double idf = idf(term);
+            cursors.add(postings);
+            idfs.add(idf);
+            bounds.add(_pruning ? bound(term, idf) : 0.0);
+        }
+
+        int n = cursors.size();
+        PostingsCursor[] terms = cursors.toArray(new PostingsCursor[n]);
+        double[] idf = new double[n];
+        double[] bound = new double[n];
+        for (int i = 0; i < n; i++) {
+            idf[i] = idfs.get(i);
+            bound[i] = bounds.get(i);
+        }
+
+        // order holds the cursors sorted by their current document
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) order[i] = i;
+
+        while (true) {
+            Arrays.sort(order, (a, b) -> Integer.compare(terms[a].doc(), terms[b].doc()));
+            int pivot = pivot(order, terms, bound, collector.threshold());
+            if (pivot < 0) break;
+
+            int doc = terms[order[pivot]].doc();
+            if (doc == PostingsCursor.NO_MORE_DOCS) break;
+
+            if (terms[order[0]].doc() == doc) {
+                // every cursor up to the pivot is on doc, so score it
+                double score = 0.0;
+                for (int i = 0; i < n; i++) {
+                    if (terms[i].doc() == doc) {
+                        score += score(terms[i].count(), idf[i], doc);
+                    }
+                }
+                collector.collect(doc, _index.name(doc), score);
+                for (int i = 0; i < n; i++) {
+                    if (terms[i].doc() == doc) terms[i].next();
+                }
+            } else {
+                // documents before the pivot cannot make the top k
+                for (int i = 0; i < pivot; i++) {
+                    terms[order[i]].advance(doc);
+                }
+            }
+        }
+        Vector<Association<String, Double>> results = collector.results();
+        Metrics.stop(Metrics.TOP_K, start);
+        return results;
+    }
+
+    /*
+     * Picks the cursor whose document is the first one that could still
+     * make the top k: the bounds of it and all cursors before it must add
+     * up to more than the threshold. Without pruning that is always the
+     * first cursor. Returns -1 if no document can make it.
+     */
+    private int pivot(Integer[] order, PostingsCursor[] terms, double[] bound, double threshold) {
+        if (order.length == 0) return -1;
+        if (!_pruning || threshold == Double.NEGATIVE_INFINITY) return 0;
+
+        double sum = 0.0;
+        for (int i = 0; i < order.length; i++) {
+            if (terms[order[i]].doc() == PostingsCursor.NO_MORE_DOCS) return -1;
+            sum += bound[order[i]];
+            // bounds are summed in a different order than scores, so leave
+            // room for rounding rather than risk skipping a tied document
+            if (sum >= threshold - 1e-9 * Math.abs(threshold)) {
+                // include every cursor already sitting on the pivot document
+                int doc = terms[order[i]].doc();
+                while (i + 1 < order.length && terms[order[i + 1]].doc() == doc) i++;
+                return i;
+            }
+        }
+        return -1;
+    }
+
+}
@@ -0,0 +1,652 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.TreeMap;
+
+/**
+ * An index that documents can be added to and deleted from while it is
+ * being searched, kept as a log-structured set of segments in a folder.
+ *
+ * New documents go into an in-memory Table. They are searchable as soon
+ * as add returns, and once enough of them have been added (FLUSH_DOCUMENTS
+ * by default), they are written out as a new immutable segment file, a
+ * MappedIndex. A deleted or replaced document is not removed from its
+ * segment. It is marked with a tombstone instead, and left out of every
+ * search.
+ *
+ * A background thread merges segments under a tiered policy. Each
+ * segment is in a tier by its size, and MERGE_FACTOR segments of one
+ * tier are merged into a single segment of the next. A segment with
+ * most of its documents deleted is rewritten on its own. Either way,
+ * the tombstoned documents are dropped for good. Each segment file
+ * is written once, so the number of times a document is rewritten
+ * grows only with the log of the index size.
+ *
+ * Searches see an immutable snapshot of every segment, with tombstoned
+ * documents removed, put together as one MultiIndex. Document
+ * frequencies are summed over the whole snapshot, so idf is the same
+ * as for a single index of the live documents. Writers never hold up
+ * a search that is already running.
+ *
+ * The list of segment files and their tombstones is saved whenever a
+ * segment is written. Documents added since then are lost if the
+ * process dies before flush or close.
+ */
+class SegmentedIndex implements Index {
+    /* "MOSG", to recognize segment lists */
+    private static final int MAGIC = 0x4D4F5347;
+
+    /* The name of the file listing the segments, within the folder. */
+    private static final String SEGMENTS = "segments";
+
+    /* The default number of documents held in memory before they are written out. */
+    public static final int FLUSH_DOCUMENTS = 10000;
+
+    /* The number of segments of one tier merged into one of the next. */
+    public static final int MERGE_FACTOR = 8;
+
+    /* The most in-memory segments kept before the smallest are combined. */
+    private static final int MEMORY_SEGMENTS = 8;
+
+    /* A segment with more than this fraction of its documents deleted is rewritten. */
+    private static final double MAX_DELETED = 0.5;
+
+    /* Stands in for the added documents when only deleting from a segment. */
+    private static final Index EMPTY = new Table();
+
+    /*
+     * A segment: its documents, and tombstones for the ones deleted since.
+     * For each term searched so far, it keeps how many of its deleted
+     * documents contain the term, so the segment's document frequencies
+     * come from its own, less those counts, without walking postings.
+     */
+    private static class Segment {
+        Index index;
+        /* the segment's file in the folder, or null while it is in memory */
+        String file;
+        BitSet deleted = new BitSet();
+        int deletedCount = 0;
+        /* index without the deleted documents, made on demand */
+        Index view;
+        /* the deleted documents, in the order they were deleted */
+        int[] deletions = new int[16];
+        /* for each term looked up, {deleted documents with it, deletions counted} */
+        HashMap<String, int[]> deletedFrequencies = new HashMap<>();
+
+        Segment(Index index, String file) {
+            this.index = index;
+            this.file = file;
+        }
+
+        int live() {
+            return index.documents() - deletedCount;
+        }
+
+        /* Tombstones a document. */
+        synchronized void delete(int doc) {
+            deleted.set(doc);
+            if (deletedCount == deletions.length) deletions = Arrays.copyOf(deletions, deletedCount * 2);
+            deletions[deletedCount++] = doc;
+            view = null;
+        }
+
+        /*
+         * Returns the number of documents containing term among the first
+         * deletions, counting only the deletions not counted before.
+         */
+        synchronized int deletedFrequency(String term, int deletions) {
+            int[] counted = deletedFrequencies.computeIfAbsent(term, t -> new int[2]);
+            // a search on an older snapshot than the counts were made for
+            if (counted[1] > deletions) return count(term, 0, deletions);
+            counted[0] += count(term, counted[1], deletions);
+            counted[1] = deletions;
+            return counted[0];
+        }
+
+        /*
+         * Counts the deletions in [from, to) that contain term, skipping
+         * through its postings to them, or walking the postings if the
+         * term is in fewer documents than that.
+         */
+        private int count(String term, int from, int to) {
+            if (from == to) return 0;
+            PostingsCursor postings = index.postings(term);
+            if (postings == null) return 0;
+            int[] docs = Arrays.copyOfRange(deletions, from, to);
+            Arrays.sort(docs);
+            int count = 0;
+            if (docs.length > index.documentFrequency(term)) {
+                for (int doc = postings.doc(); doc != PostingsCursor.NO_MORE_DOCS; doc = postings.next()) {
+                    if (Arrays.binarySearch(docs, doc) >= 0) count++;
+                }
+                return count;
+            }
+            for (int doc : docs) {
+                int found = postings.advance(doc);
+                if (found == PostingsCursor.NO_MORE_DOCS) break;
+                if (found == doc) count++;
+            }
+            return count;
+        }
+    }
+
+    /* Where a live document is: its segment (null while in _memory) and id there. */
+    private static class Location {
+        Segment segment;
+        int doc;
+
+        Location(Segment segment, int doc) {
+            this.segment = segment;
+            this.doc = doc;
+        }
+    }
+
+    /* What searches see: the live documents of every segment, and a searcher for them. */
+    private static class Snapshot {
+        MultiIndex index;
+        Searcher searcher;
+
+        Snapshot(MultiIndex index, Searcher searcher) {
+            this.index = index;
+            this.searcher = searcher;
+        }
+    }
+
+    /* The folder holding the segment files */
+    private Path _dir;
+
+    /* The number of documents held in memory before they are written out */
+    private int _flushDocuments;
+
+    /* The segments on disk, then those in memory */
+    private ArrayList<Segment> _segments;
+
+    /* Documents added since the last snapshot was taken */
+    private Table _memory;
+
+    /* Every live document, by name */
+    private HashMap<String, Location> _live;
+
+    /* The number of the next segment file */
+    private int _generation;
+
+    /* Segment files merged away, to delete once the segment list no longer names them */
+    private ArrayList<String> _obsolete;
+
+    /* The ranking model and pruning setting for searches */
+    private Scorer _scorer;
+    private boolean _pruning;
+
+    /* The current snapshot, or null if documents changed since it was taken */
+    private volatile Snapshot _snapshot;
+
+    /* Merges segments in the background */
+    private Thread _merger;
+    private boolean _closed;
+
+    /**
+     * Opens the segmented index in dir, creating an empty one if there is
+     * none, and starts merging in the background. Call close when done.
+     *
+     * @param dir The folder to keep the segments in.
+     */
+    public SegmentedIndex(Path dir) throws IOException {
+        this(dir, FLUSH_DOCUMENTS);
+    }
+
+    /**
+     * Opens the segmented index in dir, creating an empty one if there is
+     * none, and starts merging in the background. Call close when done.
+     *
+     * @param dir The folder to keep the segments in.
+     * @param flushDocuments The number of documents to hold in memory
+     *                       before writing them out as a segment.
+     */
+    public SegmentedIndex(Path dir, int flushDocuments) throws IOException {
+        _dir = dir;
+        _flushDocuments = Math.max(1, flushDocuments);
+        _segments = new ArrayList<>();
+        _memory = new Table();
+        _live = new HashMap<>();
+        _generation = 0;
+        _obsolete = new ArrayList<>();
+        _scorer = new TfIdfScorer();
+        _pruning = false;
+        Files.createDirectories(dir);
+        load();
+
+        _merger = new Thread(this::mergeLoop, "segment-merger");
+        _merger.setDaemon(true);
+        _merger.start();
+    }
+
+    /**
+     * Adds a document, replacing any document of the same name. It can
+     * be searched as soon as this returns.
+     *
+     * @param name The document's path or URL.
+     * @param freq The TermFrequency of the document.
+     */
+    public synchronized void add(String name, TermFrequency freq) throws IOException {
+        if (_closed) throw new IllegalStateException("the index is closed");
+        delete(name);
+        _live.put(name, new Location(null, _memory.documents()));
+        _memory.addDocument(name, freq);
+        _snapshot = null;
+        if (memoryDocuments() >= _flushDocuments) flush();
+    }
+
+    /**
+     * Adds a file, replacing any earlier version of it. The file is read
+     * before the index is locked, so other writers are not held up.
+     *
+     * @param file Path to a document.
+     */
+    public void add(Path file) throws IOException {
+        TermFrequency freq = new TermFrequency(file);
+        add(file.toString(), freq);
+    }
+
+    /**
+     * Deletes a document. It is left out of searches from now on.
+     *
+     * @param name The document's path or URL.
+     * @return false if there was no such document.
+     */
+    public synchronized boolean delete(String name) {
+        Location location = _live.get(name);
+        if (location == null) return false;
+        // documents in _memory are only tombstoned once frozen into a segment
+        if (location.segment == null) freeze();
+        _live.remove(name);
+        location.segment.delete(location.doc);
+        _snapshot = null;
+        return true;
+    }
+
+    /**
+     * Writes the documents held in memory out as a new segment, and saves
+     * the list of segments, so everything added or deleted so far survives
+     * a restart.
+     */
+    public synchronized void flush() throws IOException {
+        freeze();
+        ArrayList<Segment> memory = new ArrayList<>();
+        for (Segment segment : _segments) {
+            if (segment.file == null) memory.add(segment);
+        }
+        if (!memory.isEmpty()) {
+            Segment[] sources = memory.toArray(new Segment[0]);
+            BitSet[] deleted = new BitSet[sources.length];
+            Index[] views = new Index[sources.length];
+            for (int i = 0; i < sources.length; i++) {
+                deleted[i] = sources[i].deleted;
+                views[i] = view(sources[i]);
+            }
+            String file = nextFile();
+            MappedIndex.write(new MultiIndex(views), _dir.resolve(file));
+            replace(sources, deleted, new Segment(MappedIndex.open(_dir.resolve(file)), file));
+        }
+        save();
+        _snapshot = null;
+        // a new segment may complete a tier
+        notifyAll();
+    }
+
+    /**
+     * Stops merging, waiting for a merge in progress to finish, and
+     * flushes. The index cannot be changed afterwards.
+     */
+    public void close() throws IOException {
+        synchronized (this) {
+            if (_closed) return;
+            _closed = true;
+            notifyAll();
+        }
+        try {
+            _merger.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    /**
+     * Sets the ranking model used by searcher().
+     *
+     * @param scorer The new ranking model.
+     */
+    public synchronized void setScorer(Scorer scorer) {
+        _scorer = scorer;
+        _snapshot = null;
+    }
+
+    /**
+     * Turns dynamic pruning on or off for searcher().topK.
+     *
+     * @param pruning true to skip non-competitive documents.
+     */
+    public synchronized void setPruning(boolean pruning) {
+        _pruning = pruning;
+        _snapshot = null;
+    }
+
+    /**
+     * Returns the number of segments, in memory and on disk.
+     */
+    public synchronized int segments() {
+        return _segments.size() + (_memory.documents() > 0 ? 1 : 0);
+    }
+
+    /**
+     * Returns a Searcher over the documents live right now. It keeps
+     * seeing them, whatever is added or deleted later, and a new one is
+     * made after each change.
+     */
+    public Searcher searcher() {
+        return snapshot().searcher;
+    }
+
+    /* The methods below read the current snapshot; see Index. */
+
+    public int documents() {
+        return snapshot().index.documents();
+    }
+
+    public String name(int doc) {
+        return snapshot().index.name(doc);
+    }
+
+    public int maxCount(int doc) {
+        return snapshot().index.maxCount(doc);
+    }
+
+    public int length(int doc) {
+        return snapshot().index.length(doc);
+    }
+
+    public long totalLength() {
+        return snapshot().index.totalLength();
+    }
+
+    public int documentFrequency(String term) {
+        return snapshot().index.documentFrequency(term);
+    }
+
+    public PostingsCursor postings(String term) {
+        return snapshot().index.postings(term);
+    }
+
+    public Iterable<String> terms() {
+        return snapshot().index.terms();
+    }
+
+    public FrontCodedTerms dictionary() {
+        return snapshot().index.dictionary();
+    }
+
+    /* Returns the current snapshot, taking a new one if anything changed. */
+    private Snapshot snapshot() {
+        Snapshot snapshot = _snapshot;
+        if (snapshot == null) snapshot = publish();
+        return snapshot;
+    }
+
+    /* Takes a snapshot of every segment, including the documents in memory. */
+    private synchronized Snapshot publish() {
+        if (_snapshot == null) {
+            freeze();
+            Index[] views = new Index[_segments.size()];
+            for (int i = 0; i < views.length; i++) {
+                views[i] = view(_segments.get(i));
+            }
+            MultiIndex index = new MultiIndex(views);
+            _snapshot = new Snapshot(index, new Searcher(index, _scorer, _pruning));
+        }
+        return _snapshot;
+    }
+
+    /* Returns segment's index without its deleted documents. */
+    private static Index view(Segment segment) {
+        if (segment.deletedCount == 0) return segment.index;
+        if (segment.view == null) {
+            boolean[] deleted = new boolean[segment.index.documents()];
+            for (int doc = segment.deleted.nextSetBit(0); doc >= 0; doc = segment.deleted.nextSetBit(doc + 1)) {
+                deleted[doc] = true;
+            }
+            int deletions = segment.deletedCount;
+            segment.view = new UpdatedIndex(segment.index, deleted, EMPTY,
+                                            term -> segment.deletedFrequency(term, deletions));
+        }
+        return segment.view;
+    }
+
+    /*
+     * Makes the documents in _memory an in-memory segment, so they can
+     * be searched or tombstoned while new ones go into a fresh table.
+     *
+     * Every search visits every segment, so the in-memory ones are kept
+     * few by combining the two newest whenever the newer has at least
+     * half the live documents of the older, or there are more than
+     * MEMORY_SEGMENTS. Their sizes then shrink geometrically, like the
+     * digits of a binary counter, so a document is copied into a new
+     * table only about log(documents in memory) times, however often
+     * adds and searches alternate.
+     */
+    private void freeze() {
+        if (_memory.documents() == 0) return;
+        Segment segment = new Segment(_memory, null);
+        for (int doc = 0; doc < _memory.documents(); doc++) {
+            _live.get(_memory.name(doc)).segment = segment;
+        }
+        _segments.add(segment);
+        _memory = new Table();
+
+        while (true) {
+            ArrayList<Segment> memory = new ArrayList<>();
+            for (Segment each : _segments) {
+                if (each.file == null) memory.add(each);
+            }
+            if (memory.size() < 2) return;
+            Segment older = memory.get(memory.size() - 2);
+            Segment newer = memory.get(memory.size() - 1);
+            if (2 * newer.live() < older.live() && memory.size() <= MEMORY_SEGMENTS) return;
+
+            Table combined = new Table();
+            Segment[] sources = { older, newer };
+            BitSet[] deleted = new BitSet[sources.length];
+            for (int i = 0; i < sources.length; i++) {
+                Table table = (Table) sources[i].index;
+                deleted[i] = (BitSet) sources[i].deleted.clone();
+                for (int doc = 0; doc < table.documents(); doc++) {
+                    if (!deleted[i].get(doc)) combined.addDocument(table.name(doc), table.frequency(table.name(doc)));
+                }
+            }
+            replace(sources, deleted, new Segment(combined, null));
+        }
+    }
+
+    /* Returns the number of documents held in memory, live or not. */
+    private int memoryDocuments() {
+        int documents = _memory.documents();
+        for (Segment segment : _segments) {
+            if (segment.file == null) documents += segment.index.documents();
+        }
+        return documents;
+    }
+
+    /*
+     * Puts target, which holds the documents of sources that were live
+     * according to deleted, in place of sources. Documents deleted from
+     * sources since then are tombstoned in target.
+     */
+    private void replace(Segment[] sources, BitSet[] deleted, Segment target) {
+        int next = 0;
+        for (int i = 0; i < sources.length; i++) {
+            Segment source = sources[i];
+            for (int doc = 0; doc < source.index.documents(); doc++) {
+                if (deleted[i].get(doc)) continue;
+                if (source.deleted.get(doc)) {
+                    target.delete(next);
+                } else {
+                    Location location = _live.get(source.index.name(doc));
+                    location.segment = target;
+                    location.doc = next;
+                }
+                next++;
+            }
+        }
+
+        int position = _segments.indexOf(sources[0]);
+        for (Segment source : sources) {
+            _segments.remove(source);
+            if (source.file != null) _obsolete.add(source.file);
+        }
+        if (target.index.documents() > 0) {
+            // on-disk segments stay ahead of the in-memory ones
+            if (target.file != null) {
+                while (position > 0 && _segments.get(position - 1).file == null) position--;
+            }
+            _segments.add(Math.min(position, _segments.size()), target);
+        } else if (target.file != null) {
+            _obsolete.add(target.file);
+        }
+        _snapshot = null;
+    }
+
+    /* Returns the name of a new segment file. */
+    private String nextFile() {
+        return String.format("segment-%06d.bin", _generation++);
+    }
+
+    /* Picks segments to merge, or returns null if none need it. */
+    private Segment[] pickMerge() {
+        TreeMap<Integer, ArrayList<Segment>> tiers = new TreeMap<>();
+        for (Segment segment : _segments) {
+            if (segment.file == null) continue;
+            // a segment that is mostly tombstones is rewritten alone
+            if (segment.deletedCount > MAX_DELETED * segment.index.documents()) {
+                return new Segment[] { segment };
+            }
+            tiers.computeIfAbsent(tier(segment.live()), tier -> new ArrayList<>()).add(segment);
+        }
+        for (ArrayList<Segment> tier : tiers.values()) {
+            if (tier.size() >= MERGE_FACTOR) {
+                return tier.subList(0, MERGE_FACTOR).toArray(new Segment[0]);
+            }
+        }
+        return null;
+    }
+
+    /* Returns the tier of a segment of the given size: 0 up to a flush, then one per MERGE_FACTOR. */
+    private int tier(int documents) {
+        int tier = 0;
+        for (long size = _flushDocuments; documents > size; size *= MERGE_FACTOR) tier++;
+        return tier;
+    }
+
+    /* Runs on _merger: waits for segments that need merging and merges them. */
+    private void mergeLoop() {
+        while (true) {
+            Segment[] sources = null;
+            BitSet[] deleted;
+            Index[] views;
+            String file;
+            synchronized (this) {
+                try {
+                    while (!_closed && (sources = pickMerge()) == null) wait();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (_closed) return;
+                deleted = new BitSet[sources.length];
+                views = new Index[sources.length];
+                for (int i = 0; i < sources.length; i++) {
+                    deleted[i] = (BitSet) sources[i].deleted.clone();
+                    views[i] = view(sources[i]);
+                }
+                file = nextFile();
+            }
+
+            // the merged segment is written without the lock, so adds and searches go on
+            try {
+                MappedIndex.write(new MultiIndex(views), _dir.resolve(file));
+                MappedIndex merged = MappedIndex.open(_dir.resolve(file));
+                synchronized (this) {
+                    replace(sources, deleted, new Segment(merged, file));
+                    // saving the list also flushes, so no saved tombstone outlives the document that replaced it
+                    flush();
+                }
+            } catch (IOException e) {
+                System.err.println("Merging segments failed, so merging has stopped: " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    /* Reads the segment list, if there is one, and opens its segments. */
+    private void load() throws IOException {
+        Path list = _dir.resolve(SEGMENTS);
+        HashSet<String> files = new HashSet<>();
+        if (Files.exists(list)) {
+            try (DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(Files.newInputStream(list)))) {
+                if (in.readInt() != MAGIC) throw new IOException(list + " is not a segment list");
+                _generation = in.readInt();
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    String file = in.readUTF();
+                    Segment segment = new Segment(MappedIndex.open(_dir.resolve(file)), file);
+                    int deleted = in.readInt();
+                    for (int j = 0; j < deleted; j++) segment.delete(in.readInt());
+                    for (int doc = 0; doc < segment.index.documents(); doc++) {
+                        if (!segment.deleted.get(doc)) _live.put(segment.index.name(doc), new Location(segment, doc));
+                    }
+                    _segments.add(segment);
+                    files.add(file);
+                }
+            }
+        }
+
+        // segment files not on the list are left from a merge or flush that never finished
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(_dir, "segment-*")) {
+            for (Path file : stream) {
+                if (!files.contains(file.getFileName().toString())) Files.delete(file);
+            }
+        }
+    }
+
+    /* Saves the list of segments on disk and their tombstones, then deletes merged-away files. */
+    private void save() throws IOException {
+        ArrayList<Segment> disk = new ArrayList<>();
+        for (Segment segment : _segments) {
+            if (segment.file != null) disk.add(segment);
+        }
+
+        Path list = _dir.resolve(SEGMENTS);
+        Path temp = _dir.resolve(SEGMENTS + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(_generation);
+            out.writeInt(disk.size());
+            for (Segment segment : disk) {
+                out.writeUTF(segment.file);
+                out.writeInt(segment.deletedCount);
+                for (int doc = segment.deleted.nextSetBit(0); doc >= 0; doc = segment.deleted.nextSetBit(doc + 1)) {
+                    out.writeInt(doc);
+                }
+            }
+        }
+        Files.move(temp, list, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        // searches still running on an old snapshot keep their mapping of these
+        for (String file : _obsolete) Files.deleteIfExists(_dir.resolve(file));
+        _obsolete.clear();
+    }
+
+}
@@ -0,0 +1,337 @@
+import java.io.*;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import structure5.*;
+
+/**
+ * Searches a document folder split across SearchShard processes, so no
+ * one process has to hold the whole index. On creation it asks every
+ * shard for its statistics and sums them, giving the document frequency
+ * of each term over the whole corpus. Each query is then sent to all
+ * shards at once along with those corpus-wide statistics, so each shard
+ * scores its documents exactly as a single Table of the folder would.
+ * The shards' top k lists are merged into the overall top k, with ties
+ * broken by the documents' ids in the whole folder, as Table does.
+ *
+ * A shard that fails, or does not answer before the timeout, is left
+ * out: the results of the other shards are returned, marked partial.
+ */
+class ShardedSearcher {
+    /* The default time to wait for the shards to answer a query. */
+    public static final long TIMEOUT_MILLIS = 1000;
+
+    /* The time to wait for a shard to start sending its statistics. */
+    public static final long STATISTICS_TIMEOUT_MILLIS = 10000;
+
+    /* The shards' addresses */
+    private URI[] _shards;
+
+    /* How long to wait for the shards to answer a query, in milliseconds */
+    private long _timeout;
+
+    private HttpClient _client;
+
+    /* The statistics of the whole corpus */
+    private int _documents;
+    private long _totalLength;
+    private HashMap<String, Integer> _frequencies;
+
+    /* Every term of the corpus, for expanding wildcard patterns */
+    private FrontCodedTerms _dictionary;
+
+    /* A document from one shard's results */
+    private static class Hit {
+        int doc;
+        double score;
+        String name;
+    }
+
+    /**
+     * The results of a query, along with the shards that did not answer.
+     */
+    public static class Response {
+        private Vector<Association<String, Double>> _results;
+        private ArrayList<URI> _failed;
+
+        Response(Vector<Association<String, Double>> results, ArrayList<URI> failed) {
+            _results = results;
+            _failed = failed;
+        }
+
+        /**
+         * Returns the top documents, highest score first.
+         */
+        public Vector<Association<String, Double>> results() {
+            return _results;
+        }
+
+        /**
+         * Returns the shards that failed or timed out.
+         */
+        public ArrayList<URI> failed() {
+            return _failed;
+        }
+
+        /**
+         * Returns true if some shard did not answer, so documents
+         * may be missing from the results.
+         */
+        public boolean partial() {
+            return !_failed.isEmpty();
+        }
+    }
+
+    /**
+     * Connect to a set of shards and gather their statistics. Every shard
+     * must answer, or the scores would not match those of a single index.
+     *
+     * @param shards The shards' addresses, e.g. http://localhost:8001/.
+     * @param timeout How long to wait for the shards to answer a query, in milliseconds.
+     */
+    public ShardedSearcher(URI[] shards, long timeout) throws IOException {
+        _shards = shards;
+        _timeout = timeout;
+        _client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofMillis(timeout))
+            .build();
+        _frequencies = new HashMap<>();
+
+        ArrayList<CompletableFuture<HttpResponse<InputStream>>> requests = new ArrayList<>();
+        for (URI shard : shards) {
+            // a shard that has just started can be slow to answer at first
+            HttpRequest request = HttpRequest.newBuilder(shard.resolve("/statistics"))
+                .timeout(Duration.ofMillis(Math.max(timeout, STATISTICS_TIMEOUT_MILLIS)))
+                .build();
+            requests.add(_client.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream()));
+        }
+        for (int i = 0; i < shards.length; i++) {
+            try {
+                HttpResponse<InputStream> response = requests.get(i).get();
+                if (response.statusCode() != 200) {
+                    throw new IOException("shard " + shards[i] + " answered " + response.statusCode());
+                }
+                try (BufferedReader in = new BufferedReader(new InputStreamReader(response.body(), StandardCharsets.UTF_8))) {
+                    readStatistics(in);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while reading statistics");
+            } catch (ExecutionException e) {
+                throw new IOException("could not read statistics from shard " + shards[i], e.getCause());
+            }
+        }
+        _dictionary = new FrontCodedTerms(_frequencies.keySet());
+    }
+
+    /* Adds one shard's statistics to the corpus totals. */
+    private void readStatistics(BufferedReader in) throws IOException {
+        String line = in.readLine();
+        try {
+            // the first line is the shard's totals, the rest are terms
+            for (boolean first = true; line != null; line = in.readLine(), first = false) {
+                int tab = line.lastIndexOf('\t');
+                if (tab < 0) throw new IOException("malformed statistics: " + line);
+                if (first) {
+                    _documents += Integer.parseInt(line.substring(0, tab));
+                    _totalLength += Long.parseLong(line.substring(tab + 1));
+                } else {
+                    _frequencies.merge(line.substring(0, tab), Integer.parseInt(line.substring(tab + 1)), Integer::sum);
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("malformed statistics: " + line);
+        }
+    }
+
+    /**
+     * Returns the number of documents in all shards.
+     */
+    public int documents() {
+        return _documents;
+    }
+
+    /**
+     * Returns the number of documents containing term in all shards.
+     *
+     * @param term A normalized term.
+     */
+    public int documentFrequency(String term) {
+        return _frequencies.getOrDefault(term, 0);
+    }
+
+    /**
+     * Returns the results of search, without the shards that failed.
+     *
+     * @param query A vector of search terms.
+     * @param k The number of documents to return.
+     */
+    public Vector<Association<String, Double>> topK(Vector<String> query, int k) {
+        return search(query, k).results();
+    }
+
+    /**
+     * Sends a query to every shard and merges their top K documents,
+     * waiting at most the timeout for them to answer. Wildcard patterns
+     * are expanded here, against the terms of every shard, so all shards
+     * score the same terms.
+     *
+     * @param query A vector of search terms.
+     * @param k The number of documents to return.
+     */
+    public Response search(Vector<String> query, int k) {
+        for (String term : query) {
+            if (Term.isPattern(term)) {
+                query = Term.expand(query, _dictionary, this::documentFrequency);
+                break;
+            }
+        }
+        StringBuilder params = new StringBuilder("/search?k=").append(k)
+            .append("&documents=").append(_documents)
+            .append("&length=").append(_totalLength);
+        for (String term : query) {
+            params.append("&t=").append(URLEncoder.encode(term, StandardCharsets.UTF_8))
+                  .append("&df=").append(documentFrequency(term));
+        }
+
+        ArrayList<CompletableFuture<HttpResponse<String>>> requests = new ArrayList<>();
+        for (URI shard : _shards) {
+            HttpRequest request = HttpRequest.newBuilder(shard.resolve(params.toString()))
+                .timeout(Duration.ofMillis(_timeout))
+                .build();
+            requests.add(_client.sendAsync(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8)));
+        }
+
+        // every shard's results, in the order of their ids in the whole folder
+        ArrayList<Hit> hits = new ArrayList<>();
+        ArrayList<URI> failed = new ArrayList<>();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(_timeout);
+        for (int i = 0; i < _shards.length; i++) {
+            CompletableFuture<HttpResponse<String>> request = requests.get(i);
+            try {
+                HttpResponse<String> response = request.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                if (response.statusCode() != 200) {
+                    failed.add(_shards[i]);
+                    continue;
+                }
+                for (String line : response.body().split("\n")) {
+                    if (line.isEmpty()) continue;
+                    String[] fields = line.split("\t", 3);
+                    Hit hit = new Hit();
+                    hit.doc = Integer.parseInt(fields[0]);
+                    hit.score = Double.parseDouble(fields[1]);
+                    hit.name = fields[2];
+                    hits.add(hit);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                request.cancel(true);
+                failed.add(_shards[i]);
+            } catch (ExecutionException | TimeoutException | RuntimeException e) {
+                request.cancel(true);
+                failed.add(_shards[i]);
+            }
+        }
+
+        hits.sort((a, b) -> Integer.compare(a.doc, b.doc));
+        TopKCollector collector = new TopKCollector(k);
+        for (Hit hit : hits) collector.collect(hit.doc, hit.name, hit.score);
+        return new Response(collector.results(), failed);
+    }
+
+    /**
+     * Starts a shard process and waits for it to say which port it is on.
+     * The process is stopped when this one exits.
+     *
+     * @param folder The document folder path.
+     * @param shard Which shard to start, from 0 to shards - 1.
+     * @param shards The number of shards the folder is split into.
+     * @param processes Receives the shard's process, so it can be stopped sooner.
+     *
+     * @return The shard's address.
+     */
+    static URI launch(String folder, int shard, int shards, ArrayList<Process> processes) throws IOException {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+            "SearchShard", folder, Integer.toString(shard), Integer.toString(shards), "0");
+        builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+        Process process = builder.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(process::destroy));
+        processes.add(process);
+
+        BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        String line;
+        while ((line = out.readLine()) != null) {
+            if (line.startsWith("Shard ")) {
+                return URI.create(line.substring(line.lastIndexOf(' ') + 1));
+            }
+        }
+        throw new IOException("shard " + shard + " exited before it was ready");
+    }
+
+    /**
+     * Searches a folder with local shard processes. Call as follows:
+     * $ java ShardedSearcher <document folder path> <shards> [<timeout ms>]
+     * It starts the shards, then answers queries read from standard
+     * input, one per line, with the top 10 documents in the JSON format
+     * of SearchServer. Shards already running can be searched with
+     * $ java ShardedSearcher --connect <port>[,<port>...] [<timeout ms>]
+     *
+     * For example,
+     * $ echo "Was Ronald Reagan an alien?" | java ShardedSearcher ufo-test 3
+     *
+     * @param args The command line argument array.
+     */
+    public static void main(String[] args) {
+        if (args.length < 2 || args.length > 3 || (args.length == 3 && !Term.isNumber(args[2]))
+            || (!args[0].equals("--connect") && !Term.isNumber(args[1]))) {
+            System.out.println("Improper arguments. The Sharded Searcher takes the following parameters:");
+            System.out.println("     java ShardedSearcher <document folder path> <shards> [<timeout ms>]");
+            System.out.println("     java ShardedSearcher --connect <port>[,<port>...] [<timeout ms>]");
+            System.exit(1);
+        }
+
+        try {
+            long timeout = args.length == 3 ? Long.parseLong(args[2]) : TIMEOUT_MILLIS;
+            URI[] shards;
+            if (args[0].equals("--connect")) {
+                String[] ports = args[1].split(",");
+                shards = new URI[ports.length];
+                for (int i = 0; i < ports.length; i++) shards[i] = URI.create("http://localhost:" + ports[i] + "/");
+            } else {
+                shards = new URI[Integer.parseInt(args[1])];
+                ArrayList<Process> processes = new ArrayList<>();
+                for (int i = 0; i < shards.length; i++) shards[i] = launch(args[0], i, shards.length, processes);
+            }
+
+            ShardedSearcher searcher = new ShardedSearcher(shards, timeout);
+            BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+            String line;
+            while ((line = in.readLine()) != null) {
+                Vector<String> query = Term.toTerms(line);
+                Response response = searcher.search(query, SearchServer.DEFAULT_K);
+                System.out.println(SearchServer.toJson(query, SearchServer.DEFAULT_K, response.results()));
+                if (response.partial()) {
+                    System.err.println("Partial results: no answer from " + response.failed());
+                }
+            }
+            System.exit(0);
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+}
@@ -0,0 +1,175 @@
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.stream.Stream;
+import structure5.*;
+
+/**
+ * Checks ShardedSearcher against a single Table of the same folder. It
+ * launches the shards as separate processes, as ShardedSearcher's main
+ * does, and runs random queries of words from the folder, each of which
+ * must get exactly the results and scores the Table's Searcher gives.
+ * Then it kills one shard: the results must be marked partial, name the
+ * dead shard, and be exactly the Table's results without that shard's
+ * documents.
+ */
+class ShardedSearcherCheck {
+    /* The number of random queries run against all shards. */
+    private static final int QUERIES = 300;
+
+    /* The number of documents whose words the queries are drawn from. */
+    private static final int SAMPLE = 50;
+
+    /* How long to wait for the shards, generous so a slow machine does not look like a failure */
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    /* The number of results asked for, in turn */
+    private static final int[] K = {1, 10, 50};
+
+    /* The folder searched, and the number of shards it is split into */
+    private Path _folder;
+    private int _shards;
+
+    /* The shard processes and their addresses */
+    private ArrayList<Process> _processes;
+    private URI[] _addresses;
+
+    /**
+     * Create a check of a folder split into shards.
+     *
+     * @param folder The document folder.
+     * @param shards The number of shards.
+     */
+    public ShardedSearcherCheck(Path folder, int shards) {
+        _folder = folder;
+        _shards = Math.max(2, shards);
+        _processes = new ArrayList<>();
+        _addresses = new URI[_shards];
+    }
+
+    /* Returns random queries of words from the first files of the folder. */
+    private ArrayList<String> queries() throws IOException {
+        ArrayList<String> words = new ArrayList<>();
+        try (Stream<Path> files = Files.walk(_folder)) {
+            for (Path file : files.filter(f -> Files.isRegularFile(f) && !Archive.isArchive(f)).sorted()
+                                  .limit(SAMPLE).toArray(Path[]::new)) {
+                for (String word : new String(Files.readAllBytes(file), StandardCharsets.UTF_8).split("\\s+")) {
+                    if (!Term.normalize(word).isEmpty()) words.add(word);
+                }
+            }
+        }
+        if (words.isEmpty()) throw new IOException(_folder + " has no plain text files to take words from");
+
+        Random random = new Random(18);
+        ArrayList<String> queries = new ArrayList<>();
+        for (int i = 0; i < QUERIES; i++) {
+            StringBuilder sb = new StringBuilder();
+            for (int n = 1 + random.nextInt(4); n > 0; n--) {
+                sb.append(words.get(random.nextInt(words.size()))).append(' ');
+            }
+            queries.add(sb.toString());
+        }
+        // a pattern, which ShardedSearcher expands over every shard's terms
+        String word = Term.normalize(words.get(0));
+        queries.add(word.substring(0, Math.min(3, word.length())) + "*");
+        return queries;
+    }
+
+    /**
+     * Runs the check and returns the number of failures, printing each one.
+     */
+    public int run() throws IOException {
+        int failures = 0;
+        for (int i = 0; i < _shards; i++) {
+            _addresses[i] = ShardedSearcher.launch(_folder.toString(), i, _shards, _processes);
+        }
+        ShardedSearcher sharded = new ShardedSearcher(_addresses, TIMEOUT_MILLIS);
+        Table table = new Table(_folder);
+        Searcher searcher = table.searcher();
+        if (sharded.documents() != table.documents()) {
+            System.out.println("FAIL: the shards hold " + sharded.documents() + " documents, the table " + table.documents());
+            failures++;
+        }
+
+        ArrayList<String> queries = queries();
+        for (int i = 0; i < queries.size(); i++) {
+            Vector<String> query = Term.toTerms(queries.get(i));
+            int k = K[i % K.length];
+            ShardedSearcher.Response response = sharded.search(query, k);
+            Vector<Association<String, Double>> expected = searcher.topK(query, k);
+            if (response.partial()) {
+                System.out.println("FAIL: no answer from " + response.failed() + " for " + query);
+                failures++;
+            } else if (!response.results().toString().equals(expected.toString())) {
+                System.out.println("FAIL: top " + k + " for " + query + " was\n  " + response.results()
+                                   + "\nnot\n  " + expected);
+                failures++;
+            }
+        }
+
+        // without the last shard, the rest of the table's ranking is still exact
+        int dead = _shards - 1;
+        _processes.get(dead).destroyForcibly();
+        try {
+            _processes.get(dead).waitFor();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while stopping shard " + dead);
+        }
+        HashMap<String, Integer> ids = new HashMap<>();
+        for (int doc = 0; doc < table.documents(); doc++) ids.put(table.name(doc), doc);
+        for (int i = 0; i < queries.size(); i += 10) {
+            Vector<String> query = Term.toTerms(queries.get(i));
+            int k = K[i % K.length];
+            ShardedSearcher.Response response = sharded.search(query, k);
+            Vector<Association<String, Double>> expected = new Vector<>();
+            for (Association<String, Double> hit : searcher.topK(query, table.documents())) {
+                if (expected.size() < k && ids.get(hit.getKey()) % _shards != dead) expected.add(hit);
+            }
+            if (!response.partial() || response.failed().size() != 1 || !response.failed().get(0).equals(_addresses[dead])) {
+                System.out.println("FAIL: with shard " + dead + " down, the shards that failed were " + response.failed());
+                failures++;
+            } else if (!response.results().toString().equals(expected.toString())) {
+                System.out.println("FAIL: with shard " + dead + " down, top " + k + " for " + query + " was\n  "
+                                   + response.results() + "\nnot\n  " + expected);
+                failures++;
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * Stops the shards still running.
+     */
+    public void close() {
+        for (Process process : _processes) process.destroy();
+    }
+
+    /**
+     * Runs the check from the command line:
+     * $ java ShardedSearcherCheck <document folder path> [<shards>]
+     * It prints ok, or each failure, and exits with 1 if any check failed.
+     *
+     * @param args The command line argument array.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2 || (args.length == 2 && !Term.isNumber(args[1]))) {
+            System.out.println("Usage: java ShardedSearcherCheck <document folder path> [<shards>]");
+            System.exit(1);
+        }
+        ShardedSearcherCheck check = new ShardedSearcherCheck(Paths.get(args[0]), args.length > 1 ? Integer.parseInt(args[1]) : 3);
+        int failures;
+        try {
+            failures = check.run();
+        } finally {
+            check.close();
+        }
+        System.out.println(failures == 0 ? "ok" : failures + " checks failed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+}
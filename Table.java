@@ -1,125 +1,604 @@
 import java.util.Hashtable;
+import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
 import structure5.*;
 import java.io.*;
 import java.nio.file.*;
-import org.jsoup.*;
-import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
 import java.net.URL;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * A class that indexes and stores TermFrequencies across
  * a collection of documents (files or webpages).
  * It can compute tf_idf and ctf_idf scores for collections
- * of normalized terms.
+ * of normalized terms, or score them with any other Scorer.
+ *
+ * Alongside the per-document TermFrequencies, the table keeps an
+ * inverted index from each term to the postings of the documents
+ * that contain it, so scoring a query only touches documents that
+ * match at least one of its terms.
+ *
+ * The documents and index are kept in a version that never changes once
+ * the table is built. Adding files makes a new version and publishes it
+ * in place of the old one with a single volatile write. Searches take
+ * the current version when they start and read it without any locks,
+ * so any number of threads can search while files are added.
  */
-class Table implements Serializable {
+class Table implements Index, Serializable {
 
-    /* A java.util hashtable of documents and their corresponding TF's */
-    private Hashtable<String, TermFrequency> _table;
+    /* The current version of the documents and inverted index */
+    private volatile Contents _contents;
+
+    /* The ranking model used to score documents, TF-IDF by default */
+    private Scorer _scorer;
+
+    /* Whether topK skips documents that cannot make the top k */
+    private boolean _pruning;
+
+    /* The searcher for the current contents and settings, made on demand */
+    private transient volatile Searcher _searcher;
+
+    /*
+     * One version of a table's documents and inverted index. A version
+     * is filled in while it is private to one thread, and never changed
+     * once it has been published as a table's _contents.
+     */
+    private static class Contents implements Index, Serializable {
+        private static final long serialVersionUID = 1L;
+
+        /* Each document's TermFrequency, by name */
+        HashMap<String, TermFrequency> table;
+
+        /* Document names, indexed by the document ids used in the postings */
+        ArrayList<String> docs;
+
+        /* The inverted index from each term to the documents that contain it */
+        HashMap<String, Postings> index;
+
+        /* The count of the most frequent term in each document, by document id */
+        int[] maxCounts;
+
+        /* The number of terms in each document, by document id */
+        int[] lengths;
+
+        /* The number of terms in all documents */
+        long totalLength;
+
+        /* A TF-IDF searcher for this version, made on demand */
+        transient volatile Searcher searcher;
+
+        /* This version's terms, sorted, made for the first wildcard query */
+        transient volatile FrontCodedTerms dictionary;
+
+        /* Create an empty version. */
+        Contents() {
+            table = new HashMap<>();
+            docs = new ArrayList<>();
+            index = new HashMap<>();
+            maxCounts = new int[16];
+            lengths = new int[16];
+            totalLength = 0;
+        }
+
+        /*
+         * Returns a copy to build the next version in. The postings lists
+         * are shared with this version, so append has to copy any it adds to.
+         */
+        Contents copy() {
+            Contents copy = new Contents();
+            copy.table = new HashMap<>(table);
+            copy.docs = new ArrayList<>(docs);
+            copy.index = new HashMap<>(index);
+            copy.maxCounts = Arrays.copyOf(maxCounts, Math.max(docs.size(), 16));
+            copy.lengths = Arrays.copyOf(lengths, Math.max(docs.size(), 16));
+            copy.totalLength = totalLength;
+            return copy;
+        }
+
+        /* See Table.addDocument. */
+        void addDocument(String name, TermFrequency freq) {
+            int doc = docs.size();
+            docs.add(name);
+            table.put(name, freq);
+            ensureCapacity(doc + 1);
+            maxCounts[doc] = freq.maxCount();
+            lengths[doc] = freq.length();
+            totalLength += freq.length();
+            dictionary = null;
+            Metrics.count(Metrics.DOCUMENTS, 1);
+            Metrics.count(Metrics.TERMS, freq.length());
+
+            freq.forEachTerm((term, count) -> {
+                Postings postings = index.get(term);
+                if (postings == null) {
+                    postings = new Postings();
+                    index.put(term, postings);
+                }
+                postings.add(doc, count);
+            });
+        }
+
+        /*
+         * Appends all of other's documents after the ones already here,
+         * shifting their ids past ours. With shared, this version's
+         * postings lists belong to a published version too, so each one
+         * is copied before other's postings are added to it.
+         */
+        void append(Contents other, boolean shared) {
+            dictionary = null;
+            if (docs.isEmpty()) {
+                // nothing to shift, so simply take over other's structures
+                table = other.table;
+                docs = other.docs;
+                index = other.index;
+                maxCounts = other.maxCounts;
+                lengths = other.lengths;
+                totalLength = other.totalLength;
+                return;
+            }
+
+            int offset = docs.size();
+            int documents = other.docs.size();
+            ensureCapacity(offset + documents);
+            docs.addAll(other.docs);
+            table.putAll(other.table);
+            System.arraycopy(other.maxCounts, 0, maxCounts, offset, documents);
+            System.arraycopy(other.lengths, 0, lengths, offset, documents);
+            totalLength += other.totalLength;
+
+            for (String term : other.index.keySet()) {
+                Postings postings = index.get(term);
+                if (postings == null) {
+                    postings = new Postings();
+                } else if (shared) {
+                    postings = new Postings(postings);
+                }
+                index.put(term, postings);
+                postings.addAll(other.index.get(term), offset);
+            }
+        }
+
+        /*
+         * Returns a new version without the documents that are near-
+         * duplicates of an earlier one, or this one if there are none.
+         * The documents kept keep their order, so ids stay sorted.
+         */
+        Contents withoutDuplicates() {
+            NearDuplicates seen = new NearDuplicates();
+            int[] ids = new int[docs.size()];
+            int kept = 0;
+            for (int doc = 0; doc < docs.size(); doc++) {
+                long fingerprint = table.get(docs.get(doc)).simhash();
+                if (seen.find(fingerprint, lengths[doc]) != null) {
+                    ids[doc] = -1;
+                } else {
+                    seen.add(docs.get(doc), fingerprint, lengths[doc]);
+                    ids[doc] = kept++;
+                }
+            }
+            if (kept == docs.size()) return this;
+            Metrics.count(Metrics.DUPLICATES, docs.size() - kept);
+
+            Contents contents = new Contents();
+            contents.ensureCapacity(kept);
+            for (int doc = 0; doc < docs.size(); doc++) {
+                if (ids[doc] < 0) continue;
+                String name = docs.get(doc);
+                contents.docs.add(name);
+                contents.table.put(name, table.get(name));
+                contents.maxCounts[ids[doc]] = maxCounts[doc];
+                contents.lengths[ids[doc]] = lengths[doc];
+                contents.totalLength += lengths[doc];
+            }
+            for (String term : index.keySet()) {
+                Postings postings = new Postings();
+                PostingsCursor cursor = index.get(term).cursor();
+                for (int doc = cursor.doc(); doc != PostingsCursor.NO_MORE_DOCS; doc = cursor.next()) {
+                    if (ids[doc] >= 0) postings.add(ids[doc], cursor.count());
+                }
+                // a term only the duplicates had is gone with them
+                if (postings.size() > 0) contents.index.put(term, postings);
+            }
+            return contents;
+        }
+
+        /* Grows the per-document arrays to hold at least documents entries. */
+        void ensureCapacity(int documents) {
+            if (documents > maxCounts.length) {
+                int capacity = Math.max(documents, maxCounts.length * 2);
+                maxCounts = Arrays.copyOf(maxCounts, capacity);
+                lengths = Arrays.copyOf(lengths, capacity);
+            }
+        }
+
+        public int documents() {
+            return docs.size();
+        }
+
+        public String name(int doc) {
+            return docs.get(doc);
+        }
+
+        public int maxCount(int doc) {
+            return maxCounts[doc];
+        }
+
+        public int length(int doc) {
+            return lengths[doc];
+        }
+
+        public long totalLength() {
+            return totalLength;
+        }
+
+        public int documentFrequency(String term) {
+            Postings postings = index.get(term);
+            if (postings == null) return 0;
+            else return postings.size();
+        }
+
+        public PostingsCursor postings(String term) {
+            Postings postings = index.get(term);
+            if (postings == null) return null;
+            else return postings.cursor();
+        }
+
+        public Iterable<String> terms() {
+            return index.keySet();
+        }
+
+        public FrontCodedTerms dictionary() {
+            FrontCodedTerms dictionary = this.dictionary;
+            if (dictionary == null) {
+                dictionary = new FrontCodedTerms(index.keySet());
+                this.dictionary = dictionary;
+            }
+            return dictionary;
+        }
+
+        public Searcher searcher() {
+            Searcher searcher = this.searcher;
+            if (searcher == null) {
+                searcher = new Searcher(this);
+                this.searcher = searcher;
+            }
+            return searcher;
+        }
+    }
+
+    /**
+     * Create an empty table and index, to add documents to one at a time.
+     */
+    Table() {
+        _contents = new Contents();
+        _scorer = new TfIdfScorer();
+        _pruning = false;
+    }
 
     /**
      * Build term frequency table for all documents in path. Searches for
-     * documents recursively.
+     * documents recursively, indexing them on every available core.
      *
      * @param dir Document path.
      */
     public Table(Path dir) throws IOException {
-        _table = new Hashtable<>();
+        this(dir, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Build term frequency table for all documents in path. Searches for
+     * documents recursively. With a parallelism above one, the documents
+     * are split among the workers of a ForkJoinPool; each worker indexes
+     * its share into a table of its own, and the partial tables are then
+     * appended together, so workers never contend on a shared table.
+     * Document ids come out the same as in a single-threaded build.
+     * The entries of archives (see Archive) are indexed in place of the
+     * archives, as documents named "archive!/entry".
+     *
+     * @param dir Document path.
+     * @param parallelism The number of threads to index with.
+     */
+    public Table(Path dir, int parallelism) throws IOException {
+        this(walk(dir), parallelism);
+    }
+
+    /**
+     * Build term frequency table for all documents in path, as above.
+     * With skipDuplicates, a document whose text is a near-duplicate of
+     * an earlier one (see NearDuplicates) is left out of the table.
+     *
+     * @param dir Document path.
+     * @param parallelism The number of threads to index with.
+     * @param skipDuplicates true to leave out near-duplicate documents.
+     */
+    public Table(Path dir, int parallelism, boolean skipDuplicates) throws IOException {
+        this(walk(dir), parallelism, skipDuplicates);
+    }
+
+    /* Lists dir and everything under it. */
+    private static Path[] walk(Path dir) throws IOException {
+        long start = Metrics.start();
         Path[] files = Files.walk(dir).toArray(Path[]::new);
-        
-        for (Path file : files) {
-            if (!file.toFile().isDirectory()) {
-                _table.put(file.toString(), new TermFrequency(file));
+        Metrics.stop(Metrics.WALK, start);
+        return files;
+    }
+
+    /**
+     * Build term frequency table for the given files, in order,
+     * skipping any directories among them. An archive's entries are
+     * indexed, in order, in place of the archive.
+     *
+     * @param files Document paths.
+     * @param parallelism The number of threads to index with.
+     */
+    public Table(Path[] files, int parallelism) {
+        this(files, parallelism, false);
+    }
+
+    /**
+     * Build term frequency table for the given files, in order,
+     * skipping any directories among them and, with skipDuplicates,
+     * any file that is a near-duplicate of an earlier one.
+     *
+     * @param files Document paths.
+     * @param parallelism The number of threads to index with.
+     * @param skipDuplicates true to leave out near-duplicate documents.
+     */
+    public Table(Path[] files, int parallelism, boolean skipDuplicates) {
+        this();
+        long start = Metrics.start();
+        _contents = index(files, parallelism);
+        if (skipDuplicates) _contents = _contents.withoutDuplicates();
+        Metrics.stop(Metrics.BUILD, start);
+    }
+
+    /* Indexes files, in order, into a new version that nothing else can see yet. */
+    private static Contents index(Path[] files, int parallelism) {
+        // runs of plain files are indexed together, and each archive on its own
+        Contents contents = new Contents();
+        int from = 0;
+        for (int i = 0; i <= files.length; i++) {
+            if (i < files.length && !(Archive.isArchive(files[i]) && !files[i].toFile().isDirectory())) continue;
+            if (from < i) contents.append(index(files, from, i, parallelism), false);
+            if (i < files.length) contents.append(indexArchive(files[i], parallelism), false);
+            from = i + 1;
+        }
+        return contents;
+    }
+
+    /* Indexes the plain files files[from, to), in order, into a new version. */
+    private static Contents index(Path[] files, int from, int to, int parallelism) {
+        if (parallelism <= 1) {
+            Contents contents = new Contents();
+            for (int i = from; i < to; i++) {
+                if (!files[i].toFile().isDirectory()) {
+                    contents.addDocument(files[i].toString(), new TermFrequency(files[i]));
+                }
+            }
+            return contents;
+        }
+
+        // a few tasks per worker leaves room for work stealing to even out the load
+        int grain = Math.max(1, (to - from) / (parallelism * 8));
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            return pool.invoke(new IndexTask(files, from, to, grain));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /*
+     * Indexes an archive's entries, in order, into a new version, without
+     * extracting them (see Archive.index).
+     */
+    private static Contents indexArchive(Path file, int parallelism) {
+        Contents contents = new Contents();
+        try {
+            Archive.index(file, parallelism, entry -> true, contents::addDocument);
+        } catch (IOException e) {
+            // adding to contents throws nothing, and the archive's errors are reported there
+            throw new UncheckedIOException(e);
+        }
+        return contents;
+    }
+
+    /*
+     * Indexes files[from, to) into a new version, splitting the range in
+     * half until it is at most grain files long.
+     */
+    private static class IndexTask extends RecursiveTask<Contents> {
+        /* ForkJoinTask is Serializable, but a task is never serialized */
+        private static final long serialVersionUID = 1L;
+
+        private transient Path[] _files;
+        private int _from;
+        private int _to;
+        private int _grain;
+
+        IndexTask(Path[] files, int from, int to, int grain) {
+            _files = files;
+            _from = from;
+            _to = to;
+            _grain = grain;
+        }
+
+        @Override
+        protected Contents compute() {
+            if (_to - _from <= _grain) {
+                Contents partial = new Contents();
+                for (int i = _from; i < _to; i++) {
+                    if (!_files[i].toFile().isDirectory()) {
+                        partial.addDocument(_files[i].toString(), new TermFrequency(_files[i]));
+                    }
+                }
+                return partial;
             }
+
+            int mid = (_from + _to) >>> 1;
+            IndexTask left = new IndexTask(_files, _from, mid, _grain);
+            IndexTask right = new IndexTask(_files, mid, _to, _grain);
+            right.fork();
+            Contents partial = left.compute();
+            partial.append(right.join(), false);
+            return partial;
         }
     }
 
      /**
      * Build term frequency table for all webpages starting at seed URL. 
-     * Searches for webpages with a breadth-first search.
+     * Searches for webpages roughly breadth first, fetching many at once.
      *
      * @param startingURL seed URL to start at.
      * @param depth int of how many unique webpages to look at.
      */
     public Table(URL startingURL, int depth) {
-        _table = new Hashtable<>();
-        int pagesSeen = webCrawl(depth, startingURL);
+        this(startingURL, depth, new Crawler());
+    }
+
+    /**
+     * Build term frequency table for all webpages starting at seed URL,
+     * crawling with the given crawler.
+     *
+     * @param startingURL seed URL to start at.
+     * @param depth int of how many unique webpages to look at.
+     * @param crawler The crawler to fetch pages with.
+     */
+    public Table(URL startingURL, int depth, Crawler crawler) {
+        this();
+        int pagesSeen = crawler.crawl(startingURL, depth, this::addDocument);
         System.out.println("Collected " + pagesSeen);
     }
 
     /**
-     * Web Crawler helper method that conducts a breadth-first search.
-     * As it crawls, it add new pages to the _table.
-     * 
-     * @param curpage String URL to start at.
+     * Build term frequency table for all webpages starting at seed URL,
+     * keeping the crawl in a folder so it can be resumed. If the folder
+     * holds an earlier crawl, its pages are added first and the crawl
+     * continues from its last checkpoint until depth pages are collected.
+     *
+     * @param startingURL seed URL to start at.
      * @param depth int of how many unique webpages to look at.
-     * 
-     * @return number of webpages accessed
-     */
-    private int webCrawl(int depth, URL startingURL) {
-        // initialize variables that will be used in during search
-        int pagesSeen = 0;
-        String curPage = "";
-
-        // Breadth first traversal of the web starts with a queue
-        // Since we know the queue size will never exceed the depth, we can use an array.
-        Queue<String> toCrawl = new QueueArray<>(depth + 1);
-        toCrawl.add(startingURL.toString());
-        
-        // Try-catch for connecting to and adding the first page to the _table.
-        try {
-            _table.put(startingURL.toString(), new TermFrequency(Jsoup.connect(startingURL.toString()).get()));
-        } catch (HttpStatusException e) {
-            System.out.println("Couldn't connect to first page");
-            System.exit(1);
-        } catch (Exception e) {
-            e.printStackTrace();
-            System.out.println("Unknown failure");
-            System.exit(1);
-        }
-        
-        // while the queue has more to look at, crawl
-        while (!toCrawl.isEmpty()) {
-            // dequeue and get the neighbors
-            curPage = toCrawl.dequeue();
-            // outer try-catch will never catch anything, but is required to get neighbors of the page.
-            try {
-                Elements neighbors = Jsoup.connect(curPage).get().select("a[href]");
-                System.out.println("Got neighbors of " + curPage);
-
-                // for each neighbor, add the neighbor to _table and enqueue it if not in _table
-                for (Element page : neighbors) {
-                    curPage = page.attr("abs:href");
-                    if (!_table.containsKey(curPage)) {
-                        // inner try-catch will catch pages that Jsoup fails to access.
-                        try {
-                            _table.put(curPage, new TermFrequency(Jsoup.connect(curPage).get()));
-                            toCrawl.enqueue(curPage);
-                            pagesSeen++;
-                            System.out.println("Gathering... " + pagesSeen + " pages." );
-
-                        // innter try-catch will tell the user what went wrong, but won't stop the program.
-                        } catch (HttpStatusException e) { 
-                            System.out.println(curPage + " was unreachable, but we will continue...");
-                        } catch (IllegalArgumentException e) {
-                            System.out.println("An empty url was found, but we will continue... " + curPage);
-                        } catch (IOException e) {
-                            System.out.print("An unknown failure occured on " + curPage + "   ");
-                            System.err.println(e.getMessage());
-                        }
-                    }
-                    if (pagesSeen >= depth) return pagesSeen;
-                }
+     * @param crawler The crawler to fetch pages with.
+     * @param state The folder holding the crawl's CrawlFrontier.
+     */
+    public Table(URL startingURL, int depth, Crawler crawler, Path state) throws IOException {
+        this();
+        try (CrawlFrontier frontier = CrawlFrontier.open(state)) {
+            if (frontier.resumed()) {
+                System.out.println("Resuming the crawl in " + state + " with " + frontier.pages() + " pages");
+            }
+            int pagesSeen = crawler.crawl(startingURL, depth, this::addDocument, frontier);
+            System.out.println("Collected " + pagesSeen);
+        }
+    }
 
-            //outer try-catch should never get anything, so we exit if it does.
-            } catch (Exception e) {
-                System.out.println("An unknown failure occured");
-                e.printStackTrace();
-                System.exit(1);
+    /**
+     * Adds a document to the table and appends its terms to the
+     * postings of the inverted index. Each document gets the next
+     * free id, so every postings list stays sorted by id. The
+     * document's statistics are recorded here, once, for scoring.
+     * This changes the current version in place, so it is only for
+     * building a table that no other thread can see yet; use add
+     * once the table is being searched.
+     *
+     * @param name The document's path or URL.
+     * @param freq The TermFrequency of the document.
+     */
+    void addDocument(String name, TermFrequency freq) {
+        _contents.addDocument(name, freq);
+        // adding a document changes every idf, so the searcher is stale
+        _searcher = null;
+    }
+
+    /**
+     * Indexes more files into the table, even while it is being searched.
+     * The files are indexed on their own first. Then a new version of the
+     * table is made from the current one plus them, and published in its
+     * place. Searches already running keep the version they started with.
+     * The new version shares the postings lists of every term the new
+     * files lack; the rest are copied once per call, so it is best to add
+     * files in batches. To add or delete single documents as they come,
+     * use a SegmentedIndex.
+     *
+     * @param files Document paths, none of them in the table yet.
+     * @param parallelism The number of threads to index with.
+     */
+    public void add(Path[] files, int parallelism) {
+        // index outside the lock, so other writers only wait for the merge
+        Contents added = index(files, parallelism);
+        synchronized (this) {
+            Contents current = _contents;
+            for (String name : added.docs) {
+                if (current.table.containsKey(name)) {
+                    throw new IllegalArgumentException(name + " is already in the table");
+                }
             }
+            Contents next = current.copy();
+            next.append(added, true);
+            _contents = next;
+            _searcher = null;
         }
-        return pagesSeen;
+    }
+
+    /**
+     * Returns the TermFrequency of a document, or null if it is not in the table.
+     *
+     * @param name The document's path or URL.
+     */
+    TermFrequency frequency(String name) {
+        return _contents.table.get(name);
+    }
+
+    /**
+     * Returns the number of documents that contain term.
+     *
+     * @param term A string term.
+     */
+    public int documentFrequency(String term) {
+        return _contents.documentFrequency(term);
+    }
+
+    /**
+     * Sets the ranking model used by tfidf, score and topK. The
+     * statistics every Scorer needs are kept for each document, so
+     * this takes effect immediately, without a reindex.
+     *
+     * @param scorer The new ranking model.
+     */
+    public void setScorer(Scorer scorer) {
+        _scorer = scorer;
+        _searcher = null;
+    }
+
+    /**
+     * Turns dynamic pruning on or off for topK. With pruning, topK
+     * uses each term's largest possible score to skip (WAND-style)
+     * documents that cannot reach the current k-th best score. The
+     * results are the same either way.
+     *
+     * @param pruning true to skip non-competitive documents.
+     */
+    public void setPruning(boolean pruning) {
+        _pruning = pruning;
+        _searcher = null;
+    }
+
+    /**
+     * Returns a Searcher with this table's scorer and pruning setting.
+     * It searches the current version of the table, and keeps searching
+     * that version after files are added; it is reused until the table
+     * or its settings change.
+     */
+    public Searcher searcher() {
+        Searcher searcher = _searcher;
+        Contents contents = _contents;
+        if (searcher == null || searcher.index() != contents) {
+            searcher = new Searcher(contents, _scorer, _pruning);
+            _searcher = searcher;
+        }
+        return searcher;
     }
 
     /**
@@ -128,83 +607,87 @@ class Table implements Serializable {
      * @param term A string term.
      */
     public double idf(String term) {
-        double appearences = 0.0;
-        double documents = 0.0;
-        for (TermFrequency freq : _table.values()) {
-            documents++;
-            if (freq.getCount(term) != 0) appearences++;
-        }
-        // compute idf
-        return (Math.log(documents) / Math.log(2)) - (Math.log(appearences + 1) / Math.log(2));
+        return searcher().idf(term);
     }
 
     /**
-     * Compute the TF-IDF score for a collection of documents and
-     * a given search term.
+     * Compute the score (TF-IDF, unless another Scorer was set) of a
+     * given search term for each document that contains it.
      *
      * @param term A search term.
      */
     public Hashtable<String, Double> tfidf(String term) {
-        Hashtable<String, Double> _result = new Hashtable<>();
-        double idf = idf(term);
-        for (String doc : _table.keySet()) {
-            _result.put(doc, _table.get(doc).tf(term) * idf);
-        }
-        return _result;
+        return searcher().tfidf(term);
     }
 
     /**
-     * Computes the cumulative TF-IDF score for each document with
+     * Computes the cumulative score for each document with
      * respect to a given query.
      *
      * @param query A vector of search terms.
      */
     public Hashtable<String, Double> score(Vector<String> query) {
-        Hashtable<String, Double> _result = new Hashtable<>();
-        Hashtable<String, Double> _tfdif;
-
-        for (String term : query) {
-            _tfdif = tfidf(term);
-            for (String doc : _tfdif.keySet()) {
-                if (_result.containsKey(doc)) {
-                    _result.put(doc, _tfdif.get(doc) + _result.get(doc));
-                } else {
-                    _result.put(doc, _tfdif.get(doc));
-                }
-            }
-        }
-        return _result;
+        return searcher().score(query);
     }
 
     /**
-     * Returns the top K documents.
+     * Returns the top K documents, highest cumulative score first.
      *
-     * @param doc_tfidf A map from documents to their cumulative TF-IDF score.
+     * @param query A vector of search terms.
      * @param k The number of documents to return.
      */
     public Vector<Association<String, Double>> topK(Vector<String> query, int k) {
-        Vector<Association<String, Double>> result = new Vector<>();
-        Hashtable<String, Double> _score = score(query);
-
-        for (String doc : _score.keySet()) {
-            double score = _score.get(doc);
-            for (int i = 0; i < k; i++) {
-                if (result.get(i) == null || score > result.get(i).getValue()) {
-                    result.add(i, new Association<String, Double>(doc, score));
-                    break;
-
-                // The else if is here for the webpage search... if two scores are
-                // exactly the same, the document is very like to have been the same, which
-                // happens when the same webpage is indexed twice by the crawler. So
-                // we are avoiding listing the same result twice.
-                } else if (doc.startsWith("http") && score == result.get(i).getValue()) {
-                    break;
-                }
-            }
-        }
-        if (result.size() > k)
-            result.setSize(k);
-        return result;
+        return searcher().topK(query, k);
+    }
+
+    /**
+     * Returns the current version of the documents and inverted index.
+     * It never changes, even while files are added to the table, so
+     * use it to read one consistent version through several calls, as
+     * MappedIndex.write or a long-lived Searcher does.
+     */
+    public Index snapshot() {
+        return _contents;
+    }
+
+    /*
+     * The methods below make the table an Index; see Index. Each reads
+     * whatever version is current when it is called, so a caller making
+     * several calls while files are added may see more than one version:
+     * postings with ids past documents(), say. searcher() and topK read
+     * a single version; other readers should go through snapshot().
+     */
+
+    public int documents() {
+        return _contents.documents();
+    }
+
+    public String name(int doc) {
+        return _contents.name(doc);
+    }
+
+    public int maxCount(int doc) {
+        return _contents.maxCount(doc);
+    }
+
+    public int length(int doc) {
+        return _contents.length(doc);
+    }
+
+    public long totalLength() {
+        return _contents.totalLength();
+    }
+
+    public PostingsCursor postings(String term) {
+        return _contents.postings(term);
+    }
+
+    public Iterable<String> terms() {
+        return _contents.terms();
+    }
+
+    public FrontCodedTerms dictionary() {
+        return _contents.dictionary();
     }
 
     /**
@@ -216,14 +699,14 @@ class Table implements Serializable {
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
-        for (String doc : _table.keySet()) {
-            TermFrequency docFreqs = _table.get(doc);
-            for (String term : docFreqs.terms()) {
+        HashMap<String, TermFrequency> table = _contents.table;
+        for (String doc : table.keySet()) {
+            table.get(doc).forEachTerm((term, count) -> {
                 sb.append("\"" + doc + "\",");
                 sb.append("\"" + term + "\",");
-                sb.append(docFreqs.getCount(term));
+                sb.append(count);
                 sb.append("\n");
-            }
+            });
         }
         return sb.toString();
     }
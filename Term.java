@@ -1,29 +1,152 @@
 import structure5.*;
-import java.util.Scanner;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.function.ToIntFunction;
 
 /**
  * A class that contains some static helper methods for working
  * with terms.
  */
 class Term {
-    
+
+    /* The most terms one wildcard pattern expands to. */
+    public static final int MAX_EXPANSIONS = 64;
+
     /**
-     * Converts a query string into a normalized term array.
+     * Converts a query string into a normalized term array. A word
+     * with a * (any letters) or ? (one letter) in it, and at least one
+     * letter, is kept as a wildcard pattern, normalized but for its
+     * wildcards, for a Searcher to expand; e.g. "Astro*" gives "astro*".
+     * A ? ending a word ends a question, as in "alien?", so is dropped.
      *
      * @param query Query string.
      */
     public static Vector<String> toTerms(String query) {
         Vector<String> terms = new Vector<>();
-        Scanner sc = new Scanner(query);
-        String curWord;
+        Tokenizer tokenizer = Tokenizer.forThread();
+        if (query.indexOf('*') < 0 && query.indexOf('?') < 0) {
+            tokenizer.tokenize(query, terms::add);
+            return terms;
+        }
 
-        while (sc.hasNext()) {
-            curWord = normalize(sc.next());
-            if (!curWord.equals("")) terms.add(curWord);
+        // words are split on whitespace, as the tokenizer splits them
+        int start = 0;
+        for (int i = 0; i <= query.length(); i++) {
+            if (i < query.length() && !Character.isWhitespace(query.charAt(i))) continue;
+            String word = query.substring(start, i);
+            String pattern = normalizePattern(word);
+            if (isPattern(pattern)) terms.add(pattern);
+            else tokenizer.tokenize(word, terms::add);
+            start = i + 1;
         }
-        sc.close();
         return terms;
     }
+
+    /*
+     * Normalizes a word like normalize, but keeps its wildcards, less any
+     * trailing question marks. Returns "" unless the word has a letter as
+     * well as a wildcard.
+     */
+    private static String normalizePattern(String word) {
+        int end = word.length();
+        while (end > 0 && (word.charAt(end - 1) == '?' || !Character.isLetter(word.charAt(end - 1))
+                           && word.charAt(end - 1) != '*')) end--;
+        word = word.substring(0, end);
+        StringBuilder str = new StringBuilder(word.length());
+        boolean letter = false;
+        boolean wildcard = false;
+        for (int i = 0; i < word.length(); i++) {
+            char c = word.charAt(i);
+            if (Character.isLetter(c)) letter = true;
+            else if (c == '*' || c == '?') wildcard = true;
+            else continue;
+            str.append(c);
+        }
+        if (!letter || !wildcard) return "";
+        return str.toString().toLowerCase();
+    }
+
+    /**
+     * Returns true if a query term is a wildcard pattern.
+     *
+     * @param term A term from toTerms.
+     */
+    public static boolean isPattern(String term) {
+        return term.indexOf('*') >= 0 || term.indexOf('?') >= 0;
+    }
+
+    /**
+     * Returns true if term matches a wildcard pattern, in which * stands
+     * for any letters, none included, and ? for exactly one.
+     *
+     * @param pattern A wildcard pattern.
+     * @param term A normalized term.
+     */
+    public static boolean matches(String pattern, String term) {
+        int p = 0;
+        int t = 0;
+        // where the last * was, and the letter of term it is matched up to
+        int star = -1;
+        int mark = 0;
+        while (t < term.length()) {
+            if (p < pattern.length() && (pattern.charAt(p) == '?' || pattern.charAt(p) == term.charAt(t))) {
+                p++;
+                t++;
+            } else if (p < pattern.length() && pattern.charAt(p) == '*') {
+                star = p++;
+                mark = t;
+            } else if (star >= 0) {
+                // let the last * take one more letter
+                p = star + 1;
+                t = ++mark;
+            } else {
+                return false;
+            }
+        }
+        while (p < pattern.length() && pattern.charAt(p) == '*') p++;
+        return p == pattern.length();
+    }
+
+    /**
+     * Replaces each wildcard pattern in a query by the terms it matches
+     * in dictionary. Only the letters before a pattern's first wildcard
+     * are looked up, so a pattern that starts with one reads the whole
+     * dictionary. A pattern matching more than MAX_EXPANSIONS terms is
+     * replaced by the ones in the most documents. Other terms are kept.
+     *
+     * @param query A vector of search terms, some of which may be patterns.
+     * @param dictionary The terms of the index.
+     * @param frequency Gives the number of documents containing a term.
+     */
+    public static Vector<String> expand(Vector<String> query, FrontCodedTerms dictionary,
+                                        ToIntFunction<String> frequency) {
+        Vector<String> expanded = new Vector<>();
+        for (String term : query) {
+            if (!isPattern(term)) {
+                expanded.add(term);
+                continue;
+            }
+            int wildcard = 0;
+            while (term.charAt(wildcard) != '*' && term.charAt(wildcard) != '?') wildcard++;
+            ArrayList<String> matches = new ArrayList<>();
+            for (String candidate : dictionary.withPrefix(term.substring(0, wildcard))) {
+                if (matches(term, candidate)) matches.add(candidate);
+            }
+            if (matches.size() > MAX_EXPANSIONS) {
+                // keep the most common terms, in dictionary order
+                ArrayList<Integer> order = new ArrayList<>();
+                for (int i = 0; i < matches.size(); i++) order.add(i);
+                ArrayList<String> all = matches;
+                order.sort(Comparator.comparingInt((Integer i) -> frequency.applyAsInt(all.get(i))).reversed());
+                ArrayList<Integer> kept = new ArrayList<>(order.subList(0, MAX_EXPANSIONS));
+                kept.sort(Comparator.naturalOrder());
+                matches = new ArrayList<>();
+                for (int i : kept) matches.add(all.get(i));
+            }
+            for (String match : matches) expanded.add(match);
+        }
+        return expanded;
+    }
     
     /**
      * Returns a normalized a word by making the given word 
@@ -32,10 +155,10 @@ class Term {
      * @param word An unprocessed word.
      */
     public static String normalize(String word) {
-        String str = "";
+        StringBuilder str = new StringBuilder(word.length());
         for (int i = 0; i < word.length(); i++) 
-            if (Character.isLetter(word.charAt(i))) str += word.charAt(i);
-        return str.toLowerCase();
+            if (Character.isLetter(word.charAt(i))) str.append(word.charAt(i));
+        return str.toString().toLowerCase();
     }
 
     /**
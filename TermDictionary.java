@@ -0,0 +1,96 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Gives every distinct term seen while indexing a small integer id, so
+ * that documents can store their counts in int arrays keyed by id instead
+ * of each keeping its own copy of every term string. There is one shared
+ * dictionary per process; ids are handed out in the order terms are first
+ * seen, and never change or get reused. It is safe to use from many
+ * indexing threads at once.
+ */
+class TermDictionary {
+    /* The dictionary shared by every TermFrequency. */
+    private static final TermDictionary SHARED = new TermDictionary();
+
+    /* each term's id */
+    private ConcurrentHashMap<String, Integer> _ids;
+    /* each id's term; replaced, never modified in place, when it grows */
+    private volatile String[] _terms;
+    /* each id's 64-bit hash, for SimHash fingerprints; grows with _terms */
+    private volatile long[] _hashes;
+    private int _size;
+
+    /* Create an empty dictionary. */
+    private TermDictionary() {
+        _ids = new ConcurrentHashMap<>();
+        _terms = new String[1024];
+        _hashes = new long[1024];
+        _size = 0;
+    }
+
+    /**
+     * Returns the dictionary shared by every TermFrequency.
+     */
+    public static TermDictionary shared() {
+        return SHARED;
+    }
+
+    /**
+     * Returns the id of term, giving it a new one if it has none yet.
+     *
+     * @param term A normalized term.
+     */
+    public int id(String term) {
+        Integer id = _ids.get(term);
+        if (id != null) return id;
+
+        synchronized (this) {
+            id = _ids.get(term);
+            if (id == null) {
+                if (_size == _terms.length) {
+                    _terms = Arrays.copyOf(_terms, _size * 2);
+                    _hashes = Arrays.copyOf(_hashes, _size * 2);
+                }
+                id = _size;
+                _hashes[_size] = BloomFilter.hash(term);
+                _terms[_size++] = term;
+                // published last, so whoever sees the id can also see the term
+                _ids.put(term, id);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * Returns the id of term, or -1 if it has never been seen. Unlike id,
+     * this never adds to the dictionary, so it is the one to use for queries.
+     *
+     * @param term A normalized term.
+     */
+    public int lookup(String term) {
+        Integer id = _ids.get(term);
+        if (id == null) return -1;
+        else return id;
+    }
+
+    /**
+     * Returns the term with the given id.
+     *
+     * @param id An id returned by id or lookup.
+     */
+    public String term(int id) {
+        return _terms[id];
+    }
+
+    /**
+     * Returns a 64-bit hash of the term with the given id, the same in
+     * every process, computed once when the term is first seen.
+     *
+     * @param id An id returned by id or lookup.
+     */
+    public long hash(int id) {
+        return _hashes[id];
+    }
+
+}
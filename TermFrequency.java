@@ -1,18 +1,51 @@
-import java.util.Hashtable;
 import structure5.*;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
 import java.nio.file.*;
+import java.util.Arrays;
 import java.util.Scanner;
+import java.util.function.ObjIntConsumer;
 import org.jsoup.nodes.*;
 
 /**
  * A class that tracks term frequencies (counts) for a single document.
- * Since it is serializable, the Hashtable is from java.util, not structure5.
+ * Terms are stored by their id in the shared TermDictionary: the ids of
+ * the document's terms, sorted, and their counts sit in two int arrays,
+ * so no term string or boxed count is kept per document. While the
+ * document is read, counts go into an IntCountMap.
+ * The document's length and the count of its most frequent term are kept
+ * up to date as terms are counted, so scoring never has to rescan the counts.
+ * Since ids only mean something within one process, a TermFrequency is
+ * serialized with its terms spelled out.
+ * A 64-bit SimHash fingerprint of its terms, computed on first use,
+ * lets NearDuplicates recognize copies of the same text.
  */
 class TermFrequency implements Serializable {
-    /* a hashtable representation of the appearances of each word in the document */
-    private Hashtable<String,Integer> _counts;
+    /* the ids of the terms in the document, in increasing order */
+    private transient int[] _terms;
+    /* _counts[i] is the number of appearances of term _terms[i] */
+    private transient int[] _counts;
+    /* the counts while the document is being read */
+    private transient IntCountMap _building;
+    /* the count of the most frequent term */
+    private int _maxCount;
+    /* the total number of terms in the document */
+    private int _length;
+    /* the SimHash of the document's terms, once _fingerprinted */
+    private transient long _simhash;
+    private transient volatile boolean _fingerprinted;
     
+    /* Create an empty TermFrequency, ready to count terms. */
+    private TermFrequency() {
+        _building = new IntCountMap();
+        _maxCount = 0;
+        _length = 0;
+    }
+
     /**
       * Given a scanner, populate the table with the counts
       * of each word found.
@@ -20,15 +53,16 @@ class TermFrequency implements Serializable {
       * @param text Scanner of the document to be added.
       */
     public TermFrequency(Scanner text) {
-        _counts = new Hashtable<>();
+        this();
         String term;
 
         while (text.hasNext()) {
             term = Term.normalize(text.next());
             if (!term.equals(""))
-                incrementCount(term);
+                incrementCount(TermDictionary.shared().id(term));
         }
         text.close();
+        finish();
     }
 
     /**
@@ -38,7 +72,34 @@ class TermFrequency implements Serializable {
       * @param file Path to a document.
       */
     public TermFrequency(Path file) {
-        this(new Scanner(new FileStream(file.toString())));
+        this();
+        long start = Metrics.start();
+        try {
+            Tokenizer.forThread().tokenizeIds(file, this::incrementCount);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        finish();
+        Metrics.stop(Metrics.TOKENIZE, start);
+    }
+
+    /**
+      * Reads a document from a stream, such as an archive entry, and
+      * counts its normalized terms as for a file. The stream is read to
+      * its end and left open.
+      * 
+      * @param in The contents of a document.
+      */
+    public TermFrequency(InputStream in) {
+        this();
+        long start = Metrics.start();
+        try {
+            Tokenizer.forThread().tokenizeIds(in, this::incrementCount);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        finish();
+        Metrics.stop(Metrics.TOKENIZE, start);
     }
 
     /**
@@ -47,18 +108,54 @@ class TermFrequency implements Serializable {
       * @param doc an org.jsoup.nodes Document
       */
     public TermFrequency(Document doc) {
-        this(new Scanner(doc.normalise().text()));  
+        this();
+        long start = Metrics.start();
+        Tokenizer.forThread().tokenizeIds(doc.normalise().text(), this::incrementCount);
+        finish();
+        Metrics.stop(Metrics.TOKENIZE, start);
     }
 
-    /* Helper method for building the _counts hashtable. */
-    private void incrementCount(String term) {
-        // If _counts has the term add one to the value,
-        // else put the term int _counts and set value to one.
-        if (_counts.containsKey(term)) {
-            _counts.put(term, _counts.get(term) + 1);
-        } else {
-            _counts.put(term, 1);
+    /* Helper method for counting a term, by id, while reading. */
+    private void incrementCount(int term) {
+        int count = _building.increment(term);
+        _length++;
+        if (count > _maxCount) _maxCount = count;
+    }
+
+    /* Moves the counts into the sorted arrays once the document is read. */
+    private void finish() {
+        _terms = new int[_building.size()];
+        _counts = new int[_building.size()];
+        _building.toSorted(_terms, _counts);
+        _building = null;
+    }
+
+    /*
+     * Computes a SimHash: each term's hash votes on every bit, for a one
+     * and against for a zero, with a weight growing with the log of its
+     * count, and the fingerprint keeps the bits that won. Similar texts
+     * get fingerprints that differ in few bits. Raw counts would let the
+     * commonest words outvote the rest, making unrelated texts look alike.
+     * Only the votes for ones are added up, visiting just the bits that
+     * are set; a bit wins if they are more than half of all the votes.
+     */
+    private static long simhash(int[] terms, int[] counts) {
+        double[] ones = new double[64];
+        double total = 0;
+        TermDictionary dictionary = TermDictionary.shared();
+        for (int i = 0; i < terms.length; i++) {
+            long hash = dictionary.hash(terms[i]);
+            double weight = counts[i] == 1 ? 1 : 1 + Math.log(counts[i]);
+            total += weight;
+            for (long bits = hash; bits != 0; bits &= bits - 1) {
+                ones[Long.numberOfTrailingZeros(bits)] += weight;
+            }
         }
+        long simhash = 0;
+        for (int bit = 0; bit < 64; bit++) {
+            if (2 * ones[bit] > total) simhash |= 1L << bit;
+        }
+        return simhash;
     }
     
     /**
@@ -67,7 +164,40 @@ class TermFrequency implements Serializable {
      * @param term A string term.
      */
     public double tf(String term) {
-        return (double) getCount(term) / mostFrequentTerm().getValue();
+        return (double) getCount(term) / _maxCount;
+    }
+
+    /**
+     * Returns the count of the most frequent term in the document.
+     */
+    public int maxCount() {
+        return _maxCount;
+    }
+
+    /**
+     * Returns the SimHash fingerprint of the document's terms, computing
+     * it the first time it is asked for.
+     */
+    public long simhash() {
+        if (!_fingerprinted) {
+            _simhash = simhash(_terms, _counts);
+            _fingerprinted = true;
+        }
+        return _simhash;
+    }
+
+    /**
+     * Returns the number of terms in the document, counting repeats.
+     */
+    public int length() {
+        return _length;
+    }
+
+    /**
+     * Returns the number of distinct terms in the document.
+     */
+    public int uniqueTerms() {
+        return _terms.length;
     }
     
     /**
@@ -76,9 +206,9 @@ class TermFrequency implements Serializable {
      */
     public Association<String,Integer> mostFrequentTerm() {        
         Association<String,Integer> mostFrequent = new Association<>("", 0);
-        for (String key : _counts.keySet()) {
-            if (_counts.get(key) > mostFrequent.getValue()) {
-                mostFrequent = new Association<>(key, _counts.get(key));
+        for (int i = 0; i < _terms.length; i++) {
+            if (_counts[i] > mostFrequent.getValue()) {
+                mostFrequent = new Association<>(TermDictionary.shared().term(_terms[i]), _counts[i]);
             }
         }
         return mostFrequent;
@@ -90,22 +220,66 @@ class TermFrequency implements Serializable {
      * @param term The given term.
      */
     public int getCount(String term) {
-        Integer count = _counts.get(term);
-        if (count != null) return count;
+        int id = TermDictionary.shared().lookup(term);
+        if (id < 0) return 0;
+        int i = Arrays.binarySearch(_terms, id);
+        if (i >= 0) return _counts[i];
         else return 0;
     }
     
+    /**
+     * Hands each term in the document, with its count, to action.
+     * Used by Table when indexing.
+     *
+     * @param action Receives each term and its count.
+     */
+    void forEachTerm(ObjIntConsumer<String> action) {
+        for (int i = 0; i < _terms.length; i++) {
+            action.accept(TermDictionary.shared().term(_terms[i]), _counts[i]);
+        }
+    }
+
     /**
      * Returns all of the stored terms as a set.
-     * Since it's going from the java Set to a structure5 SetVector,
-     * the adding has to be manual.
      */
     public Set<String> terms() {
         Set<String> terms = new SetVector<>();
-        for (String key : _counts.keySet()) {
-            terms.add(key);
+        for (int term : _terms) {
+            terms.add(TermDictionary.shared().term(term));
         }
         return terms;
     }
 
-}
\ No newline at end of file
+    /* Writes the terms as strings, since ids differ between processes. */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(_terms.length);
+        for (int i = 0; i < _terms.length; i++) {
+            out.writeUTF(TermDictionary.shared().term(_terms[i]));
+            out.writeInt(_counts[i]);
+        }
+    }
+
+    /* Reads the terms back, giving them ids in this process. */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        int size = in.readInt();
+        int[] terms = new int[size];
+        int[] values = new int[size];
+        for (int i = 0; i < size; i++) {
+            terms[i] = TermDictionary.shared().id(in.readUTF());
+            values[i] = in.readInt();
+        }
+        // new ids can come in any order, so sort them again
+        long[] pairs = new long[size];
+        for (int i = 0; i < size; i++) pairs[i] = ((long) terms[i] << 32) | values[i];
+        Arrays.sort(pairs);
+        _terms = new int[size];
+        _counts = new int[size];
+        for (int i = 0; i < size; i++) {
+            _terms[i] = (int) (pairs[i] >>> 32);
+            _counts[i] = (int) pairs[i];
+        }
+    }
+
+}
@@ -0,0 +1,23 @@
+/**
+ * The classic TF-IDF model, where a term's frequency is normalized by
+ * the count of the document's most frequent term. This is the default.
+ */
+class TfIdfScorer implements Scorer {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Returns log2(documents) - log2(df + 1).
+     */
+    public double idf(int df, int documents) {
+        double appearences = df;
+        return (Math.log(documents) / Math.log(2)) - (Math.log(appearences + 1) / Math.log(2));
+    }
+
+    /**
+     * Returns the term frequency times the idf.
+     */
+    public double score(int count, double idf, int maxCount, int length, double averageLength) {
+        return (double) count / maxCount * idf;
+    }
+
+}
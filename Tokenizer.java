@@ -0,0 +1,322 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+/**
+ * A streaming tokenizer that turns text into normalized terms. It
+ * produces exactly the terms that Term.normalize gives for each
+ * whitespace-separated word (the words a Scanner would return), but
+ * reads files through reusable buffers and filters and lowercases
+ * letters in place. Terms are interned per tokenizer, so a term that
+ * has been seen before is handed out again without allocating.
+ * For indexing, terms can be handed out as their ids in the shared
+ * TermDictionary instead; each interned term remembers its id, so the
+ * dictionary is only consulted the first time a tokenizer sees a term.
+ *
+ * A Tokenizer is not thread safe; use forThread() to get one that
+ * belongs to the current thread.
+ */
+class Tokenizer {
+    /* The size of the byte and char buffers used to read files. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /* Whether lowercasing A-Z by hand agrees with String.toLowerCase here. */
+    private static final boolean ASCII_LOWERCASE =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZ".toLowerCase().equals("abcdefghijklmnopqrstuvwxyz");
+
+    /* One tokenizer per thread, so parallel indexing never shares buffers. */
+    private static final ThreadLocal<Tokenizer> LOCAL = ThreadLocal.withInitial(Tokenizer::new);
+
+    /* reusable buffers for reading and decoding files, made on first use */
+    private ByteBuffer _bytes;
+    private CharBuffer _chars;
+    private CharsetDecoder _decoder;
+
+    /* the letters of the term being built */
+    private char[] _term;
+    private int _length;
+    /* String.hashCode of the term being built */
+    private int _hash;
+    /* false if the term needs String.toLowerCase to be normalized */
+    private boolean _plain;
+
+    /* open-addressing table of every term handed out so far */
+    private String[] _interned;
+    /* _ids[i] is the dictionary id of _interned[i], or -1 if not looked up yet */
+    private int[] _ids;
+    private int _internedCount;
+
+    /* where the current call hands its terms; exactly one is set */
+    private Consumer<String> _sink;
+    private IntConsumer _idSink;
+
+    /**
+     * Create a tokenizer that decodes files with the platform's
+     * default charset, like Scanner does.
+     */
+    public Tokenizer() {
+        _term = new char[64];
+        _interned = new String[1024];
+        _ids = new int[1024];
+        Arrays.fill(_ids, -1);
+        reset();
+    }
+
+    /**
+     * Returns the current thread's tokenizer.
+     */
+    public static Tokenizer forThread() {
+        return LOCAL.get();
+    }
+
+    /**
+     * Reads a file and hands each of its normalized terms to sink.
+     *
+     * @param file Path to a document.
+     * @param sink Receives the terms, in order.
+     */
+    public void tokenize(Path file, Consumer<String> sink) throws IOException {
+        _sink = sink;
+        _idSink = null;
+        read(file);
+    }
+
+    /**
+     * Reads a file and hands the dictionary id of each of its normalized
+     * terms to sink, adding new terms to the shared TermDictionary.
+     *
+     * @param file Path to a document.
+     * @param sink Receives the term ids, in order.
+     */
+    public void tokenizeIds(Path file, IntConsumer sink) throws IOException {
+        _sink = null;
+        _idSink = sink;
+        read(file);
+    }
+
+    /**
+     * Reads a stream to its end and hands the dictionary id of each of
+     * its normalized terms to sink, as for a file. The stream is left
+     * open.
+     *
+     * @param in The contents of a document.
+     * @param sink Receives the term ids, in order.
+     */
+    public void tokenizeIds(InputStream in, IntConsumer sink) throws IOException {
+        _sink = null;
+        _idSink = sink;
+        read(Channels.newChannel(in));
+    }
+
+    /**
+     * Hands each normalized term of text to sink.
+     *
+     * @param text The text of a document or query.
+     * @param sink Receives the terms, in order.
+     */
+    public void tokenize(CharSequence text, Consumer<String> sink) {
+        _sink = sink;
+        _idSink = null;
+        scan(text);
+    }
+
+    /**
+     * Hands the dictionary id of each normalized term of text to sink,
+     * adding new terms to the shared TermDictionary.
+     *
+     * @param text The text of a document.
+     * @param sink Receives the term ids, in order.
+     */
+    public void tokenizeIds(CharSequence text, IntConsumer sink) {
+        _sink = null;
+        _idSink = sink;
+        scan(text);
+    }
+
+    /* Reads a file, handing its terms to the current sink. */
+    private void read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file)) {
+            read(channel);
+        }
+    }
+
+    /* Reads a channel to its end, handing its terms to the current sink. */
+    private void read(ReadableByteChannel channel) throws IOException {
+        if (_bytes == null) {
+            // made on first use, since crawler threads only tokenize strings
+            _bytes = ByteBuffer.allocate(BUFFER_SIZE);
+            _chars = CharBuffer.allocate(BUFFER_SIZE);
+            _decoder = Charset.defaultCharset().newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+        reset();
+        _decoder.reset();
+        _bytes.clear();
+        long read = 0;
+        boolean eof = false;
+        while (!eof) {
+            int n = channel.read(_bytes);
+            eof = n < 0;
+            if (n > 0) read += n;
+            _bytes.flip();
+            CoderResult result;
+            do {
+                result = _decoder.decode(_bytes, _chars, eof);
+                drain();
+            } while (result.isOverflow());
+            _bytes.compact();
+        }
+        while (_decoder.flush(_chars).isOverflow()) {
+            drain();
+        }
+        drain();
+        endTerm();
+        Metrics.count(Metrics.BYTES_READ, read);
+    }
+
+    /* Scans text, handing its terms to the current sink. */
+    private void scan(CharSequence text) {
+        reset();
+        for (int i = 0; i < text.length(); i++) {
+            accept(text.charAt(i));
+        }
+        endTerm();
+    }
+
+    /* Scans the decoded characters and empties the char buffer. */
+    private void drain() {
+        _chars.flip();
+        char[] chars = _chars.array();
+        int end = _chars.arrayOffset() + _chars.limit();
+        for (int i = _chars.arrayOffset() + _chars.position(); i < end; i++) {
+            accept(chars[i]);
+        }
+        _chars.clear();
+    }
+
+    /* Adds c to the current term, or ends the term on whitespace. */
+    private void accept(char c) {
+        if (c >= 'a' && c <= 'z') {
+            append(c);
+        } else if (c >= 'A' && c <= 'Z') {
+            if (ASCII_LOWERCASE) {
+                append((char) (c + ('a' - 'A')));
+            } else {
+                append(c);
+                _plain = false;
+            }
+        } else if (Character.isWhitespace(c)) {
+            endTerm();
+        } else if (c >= 128 && Character.isLetter(c)) {
+            append(c);
+            _plain = false;
+        }
+        // anything else is punctuation or a digit, and is dropped
+    }
+
+    private void append(char c) {
+        if (_length == _term.length) {
+            char[] bigger = new char[_length * 2];
+            System.arraycopy(_term, 0, bigger, 0, _length);
+            _term = bigger;
+        }
+        _term[_length++] = c;
+        _hash = 31 * _hash + c;
+    }
+
+    /* Hands the finished term, if it has any letters, to the sink. */
+    private void endTerm() {
+        if (_length > 0) {
+            int slot;
+            if (_plain) {
+                slot = intern(_term, _length, _hash);
+            } else {
+                // non-ASCII letters can lowercase differently in context, so let String do it
+                String term = new String(_term, 0, _length).toLowerCase();
+                char[] chars = term.toCharArray();
+                slot = intern(chars, chars.length, term.hashCode());
+            }
+            if (_idSink != null) {
+                if (_ids[slot] < 0) _ids[slot] = TermDictionary.shared().id(_interned[slot]);
+                _idSink.accept(_ids[slot]);
+            } else {
+                _sink.accept(_interned[slot]);
+            }
+        }
+        reset();
+    }
+
+    private void reset() {
+        _length = 0;
+        _hash = 0;
+        _plain = true;
+    }
+
+    /* Returns the slot of the interned String with the given characters. */
+    private int intern(char[] chars, int length, int hash) {
+        int mask = _interned.length - 1;
+        int i = mix(hash) & mask;
+        while (_interned[i] != null) {
+            String term = _interned[i];
+            if (term.hashCode() == hash && matches(term, chars, length)) return i;
+            i = (i + 1) & mask;
+        }
+
+        if ((_internedCount + 1) * 2 > _interned.length) {
+            grow();
+            return intern(chars, length, hash);
+        }
+        // share the dictionary's copy of the term if it has one
+        String term = new String(chars, 0, length);
+        int id = TermDictionary.shared().lookup(term);
+        if (id >= 0) term = TermDictionary.shared().term(id);
+        _interned[i] = term;
+        _ids[i] = id;
+        _internedCount++;
+        return i;
+    }
+
+    private static boolean matches(String term, char[] chars, int length) {
+        if (term.length() != length) return false;
+        for (int i = 0; i < length; i++) {
+            if (term.charAt(i) != chars[i]) return false;
+        }
+        return true;
+    }
+
+    private void grow() {
+        String[] old = _interned;
+        int[] oldIds = _ids;
+        _interned = new String[old.length * 2];
+        _ids = new int[old.length * 2];
+        Arrays.fill(_ids, -1);
+        int mask = _interned.length - 1;
+        for (int j = 0; j < old.length; j++) {
+            if (old[j] == null) continue;
+            int i = mix(old[j].hashCode()) & mask;
+            while (_interned[i] != null) i = (i + 1) & mask;
+            _interned[i] = old[j];
+            _ids[i] = oldIds[j];
+        }
+    }
+
+    /* Spreads the bits of a String hash code so nearby codes don't cluster. */
+    private static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+}
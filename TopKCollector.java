@@ -0,0 +1,124 @@
+import structure5.*;
+
+/**
+ * Collects the k highest scoring documents with a fixed-size min-heap,
+ * so selecting the top k of n scored documents costs O(n log k).
+ * Documents must be offered in increasing id order; among equal scores
+ * the earlier document ranks first.
+ */
+class TopKCollector {
+    /* heap of document ids and scores; the worst result is at the root */
+    private int[] _docs;
+    private double[] _scores;
+    private String[] _names;
+    /* number of results held, at most _docs.length */
+    private int _size;
+
+    /**
+     * Create a collector for the k best documents.
+     *
+     * @param k The number of documents to keep.
+     */
+    public TopKCollector(int k) {
+        _docs = new int[Math.max(k, 0)];
+        _scores = new double[_docs.length];
+        _names = new String[_docs.length];
+        _size = 0;
+    }
+
+    /**
+     * Returns the score a document must beat to enter the top k,
+     * negative infinity while there is still room, or positive infinity
+     * if k is 0 and no document can.
+     */
+    public double threshold() {
+        if (_docs.length == 0) return Double.POSITIVE_INFINITY;
+        if (_size < _docs.length) return Double.NEGATIVE_INFINITY;
+        else return _scores[0];
+    }
+
+    /**
+     * Offers a scored document to the collector.
+     *
+     * @param doc The id of the document.
+     * @param name The document's path or URL.
+     * @param score The document's score.
+     */
+    public void collect(int doc, String name, double score) {
+        if (_docs.length == 0) return;
+        if (_size == _docs.length && !worse(_docs[0], _scores[0], doc, score)) return;
+
+        if (_size < _docs.length) {
+            set(_size, doc, name, score);
+            siftUp(_size);
+            _size++;
+        } else {
+            set(0, doc, name, score);
+            siftDown(0);
+        }
+    }
+
+    /**
+     * Returns the collected documents, highest score first.
+     */
+    public Vector<Association<String, Double>> results() {
+        Vector<Association<String, Double>> result = new Vector<>();
+        int size = _size;
+        // repeatedly pop the worst result to the end of the heap
+        while (_size > 1) {
+            swap(0, _size - 1);
+            _size--;
+            siftDown(0);
+        }
+        for (int i = 0; i < size; i++) {
+            result.add(new Association<String, Double>(_names[i], _scores[i]));
+        }
+        _size = 0;
+        return result;
+    }
+
+    /* True if result a ranks below result b. */
+    private static boolean worse(int docA, double scoreA, int docB, double scoreB) {
+        if (scoreA != scoreB) return scoreA < scoreB;
+        return docA > docB;
+    }
+
+    private boolean worse(int i, int j) {
+        return worse(_docs[i], _scores[i], _docs[j], _scores[j]);
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (!worse(i, parent)) break;
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= _size) break;
+            if (child + 1 < _size && worse(child + 1, child)) child++;
+            if (!worse(child, i)) break;
+            swap(i, child);
+            i = child;
+        }
+    }
+
+    private void set(int i, int doc, String name, double score) {
+        _docs[i] = doc;
+        _names[i] = name;
+        _scores[i] = score;
+    }
+
+    private void swap(int i, int j) {
+        int doc = _docs[i];
+        String name = _names[i];
+        double score = _scores[i];
+        set(i, _docs[j], _names[j], _scores[j]);
+        set(j, doc, name, score);
+    }
+
+}
@@ -0,0 +1,211 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.function.ToIntFunction;
+
+/**
+ * An Index made of an existing index with some of its documents
+ * deleted, followed by the documents of another index. The surviving
+ * documents keep their order and come first, so postings stay sorted.
+ * Nothing is copied: this is a view, meant to be written out with
+ * MappedIndex.write.
+ */
+class UpdatedIndex implements Index {
+    /* the index being updated */
+    private Index _base;
+    /* the new id of each base document, or -1 if it was deleted */
+    private int[] _ids;
+    /* the base id of each surviving document, by new id */
+    private int[] _baseIds;
+    /* the number of surviving base documents */
+    private int _kept;
+    /* the deleted base documents, in order */
+    private int[] _deleted;
+    /* gives the number of deleted base documents that contain a term */
+    private ToIntFunction<String> _deletedFrequency;
+    /* the documents to add */
+    private Index _added;
+    private long _totalLength;
+    private Searcher _searcher;
+    private volatile FrontCodedTerms _dictionary;
+
+    /**
+     * Create the updated view.
+     *
+     * @param base The index being updated.
+     * @param deleted deleted[doc] is true for the base documents to drop.
+     * @param added The documents to append.
+     */
+    public UpdatedIndex(Index base, boolean[] deleted, Index added) {
+        this(base, deleted, added, null);
+    }
+
+    /**
+     * Create the updated view, given how many deleted documents contain
+     * each term, as an index that tracks its deletions may know.
+     *
+     * @param base The index being updated.
+     * @param deleted deleted[doc] is true for the base documents to drop.
+     * @param added The documents to append.
+     * @param deletedFrequency Gives the number of deleted base documents
+     *                         that contain a term; null to count them here.
+     */
+    public UpdatedIndex(Index base, boolean[] deleted, Index added, ToIntFunction<String> deletedFrequency) {
+        _base = base;
+        _added = added;
+        _ids = new int[base.documents()];
+        _baseIds = new int[base.documents()];
+        _deleted = new int[base.documents()];
+        _kept = 0;
+        _totalLength = added.totalLength();
+        for (int doc = 0; doc < _ids.length; doc++) {
+            if (deleted[doc]) {
+                _ids[doc] = -1;
+                _deleted[doc - _kept] = doc;
+            } else {
+                _baseIds[_kept] = doc;
+                _ids[doc] = _kept++;
+                _totalLength += base.length(doc);
+            }
+        }
+        _deleted = Arrays.copyOf(_deleted, _ids.length - _kept);
+        _deletedFrequency = deletedFrequency != null ? deletedFrequency : this::countDeleted;
+    }
+
+    public int documents() {
+        return _kept + _added.documents();
+    }
+
+    public String name(int doc) {
+        if (doc < _kept) return _base.name(_baseIds[doc]);
+        else return _added.name(doc - _kept);
+    }
+
+    public int maxCount(int doc) {
+        if (doc < _kept) return _base.maxCount(_baseIds[doc]);
+        else return _added.maxCount(doc - _kept);
+    }
+
+    public int length(int doc) {
+        if (doc < _kept) return _base.length(_baseIds[doc]);
+        else return _added.length(doc - _kept);
+    }
+
+    public long totalLength() {
+        return _totalLength;
+    }
+
+    public int documentFrequency(String term) {
+        int frequency = _added.documentFrequency(term);
+        int base = _base.documentFrequency(term);
+        if (base > 0) frequency += base - _deletedFrequency.applyAsInt(term);
+        return frequency;
+    }
+
+    /*
+     * Counts the deleted base documents that contain term, skipping
+     * through its postings to each, or, if the term is in fewer
+     * documents than were deleted, walking its postings instead.
+     */
+    private int countDeleted(String term) {
+        PostingsCursor postings = _base.postings(term);
+        if (postings == null) return 0;
+        int count = 0;
+        if (_deleted.length > _base.documentFrequency(term)) {
+            for (int doc = postings.doc(); doc != PostingsCursor.NO_MORE_DOCS; doc = postings.next()) {
+                if (_ids[doc] < 0) count++;
+            }
+            return count;
+        }
+        for (int doc : _deleted) {
+            int found = postings.advance(doc);
+            if (found == PostingsCursor.NO_MORE_DOCS) break;
+            if (found == doc) count++;
+        }
+        return count;
+    }
+
+    public PostingsCursor postings(String term) {
+        PostingsCursor base = _base.postings(term);
+        PostingsCursor added = _added.postings(term);
+        if (base == null && added == null) return null;
+        return new Cursor(base, added);
+    }
+
+    public Iterable<String> terms() {
+        ArrayList<String> terms = new ArrayList<>();
+        for (String term : _base.terms()) terms.add(term);
+        for (String term : _added.terms()) {
+            if (_base.documentFrequency(term) == 0) terms.add(term);
+        }
+        return terms;
+    }
+
+    public FrontCodedTerms dictionary() {
+        FrontCodedTerms dictionary = _dictionary;
+        if (dictionary == null) {
+            dictionary = new FrontCodedTerms(terms());
+            _dictionary = dictionary;
+        }
+        return dictionary;
+    }
+
+    public Searcher searcher() {
+        if (_searcher == null) _searcher = new Searcher(this);
+        return _searcher;
+    }
+
+    /* Walks the surviving base postings, then the added ones. */
+    private class Cursor implements PostingsCursor {
+        private PostingsCursor _baseCursor;
+        private PostingsCursor _addedCursor;
+        private int _doc;
+
+        Cursor(PostingsCursor base, PostingsCursor added) {
+            _baseCursor = base;
+            _addedCursor = added;
+            _doc = settle();
+        }
+
+        public int doc() {
+            return _doc;
+        }
+
+        public int count() {
+            if (_doc < _kept) return _baseCursor.count();
+            else return _addedCursor.count();
+        }
+
+        public int next() {
+            if (_doc < _kept) _baseCursor.next();
+            else if (_doc != NO_MORE_DOCS) _addedCursor.next();
+            _doc = settle();
+            return _doc;
+        }
+
+        public int advance(int target) {
+            if (target <= _doc) return _doc;
+            if (target < _kept) {
+                _baseCursor.advance(_baseIds[target]);
+            } else {
+                _baseCursor = null;
+                if (_addedCursor != null) _addedCursor.advance(target - _kept);
+            }
+            _doc = settle();
+            return _doc;
+        }
+
+        /* Skips deleted base documents, and moves on to the added ones at the end. */
+        private int settle() {
+            if (_baseCursor != null) {
+                for (int doc = _baseCursor.doc(); doc != NO_MORE_DOCS; doc = _baseCursor.next()) {
+                    if (_ids[doc] >= 0) return _ids[doc];
+                }
+                _baseCursor = null;
+            }
+            if (_addedCursor == null || _addedCursor.doc() == NO_MORE_DOCS) return NO_MORE_DOCS;
+            return _addedCursor.doc() + _kept;
+        }
+    }
+
+}
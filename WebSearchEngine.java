@@ -1,5 +1,7 @@
 import structure5.*;
+import java.io.IOException;
 import java.net.URL;
+import java.nio.file.*;
 
 /**
  * A SearchEngine for the Web, starting from a seed URL.
@@ -19,15 +21,30 @@ public class WebSearchEngine extends SearchEngine {
         super(query, new Table(startingURL, depth), k);
     }
 
+    /**
+     * Search as above, keeping the crawl in a folder. A crawl that was
+     * stopped, or that collected fewer pages, resumes from its last
+     * checkpoint instead of starting over from the seed.
+     *
+     * @param query         normalized vector of search terms
+     * @param startingURL   seed for the search
+     * @param k             int of results to return
+     * @param depth         int of how many pages to index
+     * @param state         folder holding the crawl's state
+     */
+    public WebSearchEngine(Vector<String> query, URL startingURL, int k, int depth, Path state) throws IOException {
+        super(query, new Table(startingURL, depth, new Crawler(), state), k);
+    }
+
     /**
      * Conduct the search from the command line.
-     * @param args four parameters given by the third line in the main method.
+     * @param args four or five parameters given by the third line in the main method.
      */
     public static void main(String[] args) {
         // ensure user input is accurate
-        if (args.length != 4 || !Term.isNumber(args[2]) || !Term.isNumber(args[3])) {
+        if (args.length < 4 || args.length > 5 || !Term.isNumber(args[2]) || !Term.isNumber(args[3])) {
             System.out.println("Improper search terms. The Search Engine takes the following parameters:");
-            System.out.println("     java WebSearchEngine \"<query string>\" <url> <# of pages to return> <depth of search>");
+            System.out.println("     java WebSearchEngine \"<query string>\" <url> <# of pages to return> <depth of search> [<crawl folder>]");
             System.exit(1);
         }
 
@@ -46,8 +63,16 @@ public class WebSearchEngine extends SearchEngine {
             System.exit(1);
         }
 
-        // execute the search
-        SearchEngine s = new WebSearchEngine(query, startingPage, k, depth);
+        // execute the search, resuming the crawl in the given folder if there is one
+        try {
+            SearchEngine s = args.length == 5
+                ? new WebSearchEngine(query, startingPage, k, depth, Paths.get(args[4]))
+                : new WebSearchEngine(query, startingPage, k, depth);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.out.println("Could not keep the crawl in " + args[4] + ". Shutting down.");
+            System.exit(1);
+        }
 
     }
 